@@ -1,13 +1,37 @@
+import analytic.AssemblyMarkovChain;
+import cache.ResultCache;
+import codegen.SimulatorGenerator;
+import codegen.SpecializedSimulator;
 import entities.*;
 import globals.ComponentName;
-import globals.EntityState;
-import globals.Lambda;
-import globals.EntityType;
-import globals.Product;
+import optimization.DesignSpace;
+import optimization.OCBA;
+import optimization.Objective;
+import optimization.ParallelEvaluator;
+import parallel.ParallelReplication;
+import rare.AllWorkbenchesStarved;
+import rare.FixedEffortSplitting;
+import rare.InspectorBlocked;
+import rare.RareEvent;
+import results.ColumnarResultsWriter;
+import results.ResultsQuery;
+import sensitivity.GradientReplication;
+import simulation.Configuration;
+import simulation.EntityResult;
+import simulation.Replication;
+import simulation.ReplicationResult;
+import simulation.RunControl;
+import service.SimulationService;
+import statistics.BatchMeans;
+import statistics.BottleneckRanking;
 import statistics.Calculator;
-import statistics.NumberGenerator;
+import statistics.QuantileSketch;
+import verification.SelfCheck;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 
 public class SimulationDriver {
@@ -17,6 +41,51 @@ public class SimulationDriver {
     private static final int NUMBER_OF_REPLICATIONS = 1;
     private static final boolean PERFORM_SYSTEM_VERIFICATION = true;
     private static final Double MAX_REPLICATION_LENGTH_HOURS = 1000.0;
+    private static final Long SEED = null;                                                                                     //Opt-in base seed for reproducible runs (replication n uses SEED + n), null for unseeded runs
+    private static final boolean USE_RESULT_CACHE = false;                                                                     //Reuse seeded replication results (only seeded runs are cached, so set SEED too), replications loaded from the cache print no system or entity reports
+    private static final String RESULT_CACHE_DIRECTORY = "result-cache";                                                       //Seeded replication results are reused from here
+    private static final long RESULT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int PARALLEL_WORKBENCH_PARTITIONS = 0;                                                                //Workbench threads for a single replication, 0 runs the sequential engine
+    private static final Double WARMUP_HOURS = 20.0;                                                                           //Simulated time discarded before steady-state batches are recorded
+    private static final Double BATCH_LENGTH_HOURS = 1.0;                                                                      //Length of each recorded steady-state batch, merged automatically for batch means
+    private static final int WORKBENCH_SERVERS = 1;                                                                            //Identical servers pooled in each workbench station, 1 for plain workbenches
+    private static final boolean SHARED_STATION_BUFFERS = false;                                                               //Whether station servers share one buffer per component
+    private static final String RESULTS_FILE = "results.simc";                                                                 //Columnar export of every replication's results (summarize with arguments: query [file] [metric])
+
+    //Run control of the default run, a null budget means no limit
+    private static final double PROGRESS_INTERVAL_SECONDS = 10.0;                                                              //Wall-clock seconds between progress reports of a running replication
+    private static final Double REPLICATION_WALL_CLOCK_BUDGET_SECONDS = null;
+    private static final Double REPLICATION_SIMULATED_BUDGET_HOURS = null;
+    private static final Double BATCH_WALL_CLOCK_BUDGET_SECONDS = null;
+    private static final Double BATCH_SIMULATED_BUDGET_HOURS = null;
+
+    //Optimization mode (run with arguments: optimize [throughput|idle])
+    private static final int OPTIMIZATION_MIN_BUFFER_SIZE = 1;
+    private static final int OPTIMIZATION_MAX_BUFFER_SIZE = 3;
+    private static final int OPTIMIZATION_NUM_SERVICE_TIMES = 1000;
+    private static final Double OPTIMIZATION_MAX_REPLICATION_LENGTH_HOURS = 100.0;
+    private static final int OPTIMIZATION_INITIAL_REPLICATIONS = 5;
+    private static final int OPTIMIZATION_REPLICATIONS_PER_STAGE = 20;
+    private static final int OPTIMIZATION_MAX_TOTAL_REPLICATIONS = 1000;
+    private static final double OPTIMIZATION_TARGET_PCS = 0.95;
+    private static final double OPTIMIZATION_RELATIVE_INDIFFERENCE_ZONE = 0.01;         //Fraction of the best design's objective mean
+
+    //Sensitivity mode (run with argument: sensitivity)
+    private static final double SENSITIVITY_BATCH_LENGTH_HOURS = 10.0;
+    private static final int SENSITIVITY_WARMUP_BATCHES = 1;
+
+    //Rare event mode (run with argument: rare)
+    private static final double RARE_EVENT_THRESHOLD_MINUTES = 30.0;
+    private static final int SPLITTING_LEVELS = 6;
+    private static final int SPLITTING_TRIALS_PER_LEVEL = 500;
+    private static final int SPLITTING_REPETITIONS = 10;
+
+    //Service mode (run with arguments: serve [port])
+    private static final int SERVICE_PORT = 8405;
+
+    //Benchmark mode (run with argument: benchmark)
+    private static final int BENCHMARK_REPLICATIONS = 3;
+    private static final long BENCHMARK_SEED = 4005L;                                   //Used when SEED is null, the engines are compared on seeded replications
 
     /**
      * Simulation Driver.
@@ -24,83 +93,306 @@ public class SimulationDriver {
      * @param args
      */
     public static void main(String args[]){
-        HashMap<String, ArrayList<Double>> replicationResults = new HashMap<String, ArrayList<Double>>();
-
-        //Initialize all entities
-        ArrayList<Entity> entities = init();
-
-        //Initialize replicationResults - used to contain results for each replication
-        for (Entity entity : entities) {
-            ArrayList<Double> quantityOfInterest = new ArrayList<Double>();
-            replicationResults.put(entity.getName(), quantityOfInterest);
+        if (args.length > 0 && args[0].equals("optimize")) {
+            Objective objective = args.length > 1 ? Objective.valueOf(args[1].toUpperCase()) : Objective.THROUGHPUT;
+            optimize(objective);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("analytic")) {
+            solveAnalytically();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("sensitivity")) {
+            estimateSensitivities();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("rare")) {
+            estimateRareEvents();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : SERVICE_PORT);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmarkSpecializedSimulator();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("check")) {
+            if (!new SelfCheck().run()) {
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("query")) {
+            query(new File(args.length > 1 ? args[1] : RESULTS_FILE), args.length > 2 ? args[2] : null);
+            return;
         }
 
+        HashMap<String, ArrayList<Double>> replicationResults = new HashMap<String, ArrayList<Double>>();
+        Configuration configuration = new Configuration(WORKBENCH_COMPONENT_BUFFER_SIZE, CLOCK_INCREMENT_SIZE, NUM_SERVICE_TIMES, MAX_REPLICATION_LENGTH_HOURS);
+        configuration.setSeed(SEED);
+        configuration.setWarmupHours(WARMUP_HOURS);
+        configuration.setBatchLengthHours(BATCH_LENGTH_HOURS);
+        configuration.setWorkbenchServers(WORKBENCH_SERVERS);
+        configuration.setSharedStationBuffers(SHARED_STATION_BUFFERS);
+        ArrayList<ReplicationResult> results = new ArrayList<ReplicationResult>();
+        ResultCache resultCache = newResultCache();
+        RunControl runControl = newRunControl();
+
         //Run a replication
         int replicationNumber = 1;
         while (replicationNumber <= NUMBER_OF_REPLICATIONS) {
-            HashMap<ComponentName, ArrayList<Component>> allCompletedComponents = new HashMap<ComponentName, ArrayList<Component>>();
-            Integer clockIterations= 0;                                                                                             //Number of clock iterations
-            entities = init();
-
-            //Run simulation until all entities are in either the DONE or BLOCKED state.
-            boolean replicationComplete = false;
-            while (!replicationComplete) {
-                ArrayList<EntityState> entityStates = new ArrayList<EntityState>();             //This is used track the states of all entities for each clock cycle
-
-                //Iterate through each entity and trigger the entity's clock to update
-                for (Entity entity : entities) {
-                    //Capture current state of entity
-                    EntityState entityState = entity.getState();
-                    entityStates.add(entityState);
-
-                    //Only update clock for an entity that is not in the DONE state.
-                    if (entityState != EntityState.DONE) {
-                        entity.clockUpdate(CLOCK_INCREMENT_SIZE);
-                    } else {
-                        //If an entity is DONE, this means that there are no more service times for this replication loaded for this entity, end simulation
-                        System.out.println(String.format("REPLICATION %d has been stopped since %s is in DONE state", replicationNumber, entity.getName()));
-                        replicationComplete = true;
-                    }
-                }
-
-                if (clockIterations * CLOCK_INCREMENT_SIZE > MAX_REPLICATION_LENGTH_HOURS * 3600){
-                    System.out.println(String.format("REPLICATION %d has been stopped since %s [MAX_REPLICATION_LENGTH_HOURS] has been reached", replicationNumber, MAX_REPLICATION_LENGTH_HOURS));
-                    replicationComplete = true;
-                }
-
-                clockIterations ++;
+            //Replications that have not started are skipped once the batch has to stop, those that finished are kept
+            String batchStopReason = runControl.getBatchStopReason();
+            if (batchStopReason != null) {
+                System.out.println(String.format("REPLICATIONS %d to %d have been skipped since %s", replicationNumber, NUMBER_OF_REPLICATIONS, batchStopReason));
+                break;
+            }
+            Replication replication;
+            if (PARALLEL_WORKBENCH_PARTITIONS > 0) {
+                replication = new ParallelReplication(configuration, replicationNumber, PARALLEL_WORKBENCH_PARTITIONS);
+            } else {
+                replication = new Replication(configuration, replicationNumber);
+            }
+            replication.setRunControl(runControl);
+            ReplicationResult result;
+            if (resultCache != null) {
+                result = resultCache.run(replication);
+            } else {
+                replication.run();
+                result = replication.getResult();
             }
+            System.out.println(result.getStopReason());
+            results.add(result);
 
-            //Gather results for this replication
+            //Gather results for this replication, partial results are left out of the confidence intervals
             //Collects the servicesCompleted for each entity
-            //Collects each component that has made it through the entire system (to calculate little's law for the entire system)
-            for (Entity entity : entities) {
-                ArrayList<Double> quantityOfInterest = replicationResults.get(entity.getName());
-
-                //Get all components that have made it through the entire system (completed components from the workbenches)
-                if (entity.getEntityType().equals(EntityType.WORKBENCH)) {
-                    HashMap<ComponentName, ArrayList<Component>> completedComponents = entity.getCompletedComponents();
-                    for (ComponentName componentName : completedComponents.keySet()) {
-                        if (!allCompletedComponents.containsKey(componentName)) {
-                            allCompletedComponents.put(componentName, new ArrayList<Component>());
-                        }
-                        ArrayList<Component> comp = allCompletedComponents.get(componentName);
-                        comp.addAll(completedComponents.get(componentName));
+            if (!result.isPartial()) {
+                for (EntityResult entityResult : result.getEntityResults()) {
+                    if (!replicationResults.containsKey(entityResult.getName())) {
+                        replicationResults.put(entityResult.getName(), new ArrayList<Double>());
                     }
+                    ArrayList<Double> quantityOfInterest = replicationResults.get(entityResult.getName());
+                    quantityOfInterest.add(entityResult.getQuantityOfInterest());
                 }
-                //Get number of services completed for each entity
-                quantityOfInterest.add(entity.getQuantityOfInterest());
             }
 
-            if (PERFORM_SYSTEM_VERIFICATION) {
-                System.out.println(String.format("REPLICATION %d (simulated: %.2f mins):", replicationNumber, clockIterations * CLOCK_INCREMENT_SIZE/60));
-                produceSystemReport(allCompletedComponents, entities, clockIterations);
+            //Replications loaded from the result cache were verified when they were first run
+            ArrayList<Entity> entities = replication.getEntities();
+            if (entities == null) {
+                System.out.println(String.format("REPLICATION %d loaded from result cache", replicationNumber));
+            } else if (PERFORM_SYSTEM_VERIFICATION) {
+                System.out.println(String.format("REPLICATION %d (simulated: %.2f mins):", replicationNumber, replication.getSimulatedTime()/60));
+                produceSystemReport(replication.getAllCompletedComponents(), entities, replication.getClockIterations());
                 produceEntityReport(entities);
             }
 
             replicationNumber ++;
         }
         outputSimulationReport(replicationResults);
+        outputBatchMeansReport(results, configuration);
+        outputQuantileReport(results);
+        exportResults(results, configuration);
+    }
+
+    /**
+     * Opens the result cache, or returns null when USE_RESULT_CACHE is off.
+     *
+     * @return
+     */
+    private static ResultCache newResultCache(){
+        return USE_RESULT_CACHE ? new ResultCache(new File(RESULT_CACHE_DIRECTORY), RESULT_CACHE_MAX_BYTES) : null;
+    }
+
+    /**
+     * Builds the run control of the default run: progress reports of long replications and the configured budgets.
+     *
+     * @return
+     */
+    private static RunControl newRunControl(){
+        RunControl runControl = new RunControl();
+        runControl.setReplicationWallClockBudget(REPLICATION_WALL_CLOCK_BUDGET_SECONDS);
+        runControl.setReplicationSimulatedBudget(REPLICATION_SIMULATED_BUDGET_HOURS);
+        runControl.setBatchWallClockBudget(BATCH_WALL_CLOCK_BUDGET_SECONDS);
+        runControl.setBatchSimulatedBudget(BATCH_SIMULATED_BUDGET_HOURS);
+        runControl.setProgressListener((replication, simulatedHours, targetHours, throughput, etaSeconds) -> System.out.println(String.format(
+                "REPLICATION %d progress: %.1f of %.1f hrs simulated  Throughput(AssembledProducts/hr): %f  ETA: %.0f s", replication.getReplicationNumber(), simulatedHours, targetHours, throughput, etaSeconds)), PROGRESS_INTERVAL_SECONDS);
+        return runControl;
+    }
+
+    /**
+     * Searches all buffer size and workbench priority designs for the best design by the given objective, spreading
+     * replications across designs with OCBA and running each stage in parallel.
+     *
+     * @param objective
+     */
+    private static void optimize(Objective objective){
+        Configuration base = new Configuration(WORKBENCH_COMPONENT_BUFFER_SIZE, CLOCK_INCREMENT_SIZE, OPTIMIZATION_NUM_SERVICE_TIMES, OPTIMIZATION_MAX_REPLICATION_LENGTH_HOURS);
+        base.setSeed(SEED);
+        ArrayList<Configuration> designs = DesignSpace.enumerate(base, OPTIMIZATION_MIN_BUFFER_SIZE, OPTIMIZATION_MAX_BUFFER_SIZE);
+        ResultCache resultCache = newResultCache();
+        OCBA ocba;
+        try (ParallelEvaluator evaluator = new ParallelEvaluator(objective, Runtime.getRuntime().availableProcessors(), resultCache);
+             ColumnarResultsWriter resultsWriter = new ColumnarResultsWriter(new File(RESULTS_FILE))) {
+            evaluator.setResultsWriter(resultsWriter);
+            ocba = new OCBA(designs, objective, evaluator, OPTIMIZATION_INITIAL_REPLICATIONS, OPTIMIZATION_REPLICATIONS_PER_STAGE, OPTIMIZATION_MAX_TOTAL_REPLICATIONS, OPTIMIZATION_TARGET_PCS, OPTIMIZATION_RELATIVE_INDIFFERENCE_ZONE);
+            ocba.run();
+        } catch (IOException e){
+            throw new RuntimeException("Unable to write " + RESULTS_FILE, e);
+        }
+
+        System.out.println(String.format("OPTIMIZATION RESULTS (%d designs, objective: %s)", designs.size(), objective));
+        System.out.println(ocba.produceReport());
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * Solves the exact continuous-time Markov chain of the model (all service times are exponential) and reports the
+     * steady-state results, which the simulation results should converge to.
+     *
+     */
+    private static void solveAnalytically(){
+        Configuration configuration = new Configuration(WORKBENCH_COMPONENT_BUFFER_SIZE, CLOCK_INCREMENT_SIZE, NUM_SERVICE_TIMES, MAX_REPLICATION_LENGTH_HOURS);
+        AssemblyMarkovChain markovChain = new AssemblyMarkovChain(Replication.init(configuration));
+        markovChain.generate();
+        markovChain.solve();
+
+        System.out.println("ANALYTIC STEADY-STATE RESULTS");
+        System.out.println(markovChain.produceReport());
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * Runs a single replication and reports the derivative of every quantity of interest with respect to every service
+     * rate, estimated within that run, next to the usual entity results.
+     *
+     */
+    private static void estimateSensitivities(){
+        Configuration configuration = new Configuration(WORKBENCH_COMPONENT_BUFFER_SIZE, CLOCK_INCREMENT_SIZE, NUM_SERVICE_TIMES, MAX_REPLICATION_LENGTH_HOURS);
+        configuration.setSeed(SEED);
+        GradientReplication replication = new GradientReplication(configuration, 1, SENSITIVITY_BATCH_LENGTH_HOURS, SENSITIVITY_WARMUP_BATCHES);
+        replication.run();
+        System.out.println(replication.getStopReason());
+        produceEntityReport(replication.getEntities());
+        System.out.println(replication.produceReport());
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * Estimates the probability of long blocked and starved episodes with importance splitting.
+     *
+     */
+    private static void estimateRareEvents(){
+        Configuration configuration = new Configuration(WORKBENCH_COMPONENT_BUFFER_SIZE, CLOCK_INCREMENT_SIZE, NUM_SERVICE_TIMES, MAX_REPLICATION_LENGTH_HOURS);
+        configuration.setSeed(SEED);
+        ArrayList<RareEvent> rareEvents = new ArrayList<RareEvent>();
+        rareEvents.add(new InspectorBlocked("Inspector1"));
+        rareEvents.add(new InspectorBlocked("Inspector2"));
+        rareEvents.add(new AllWorkbenchesStarved());
+
+        System.out.println("RARE EVENT ESTIMATES");
+        for (RareEvent rareEvent : rareEvents){
+            FixedEffortSplitting splitting = new FixedEffortSplitting(configuration, rareEvent, RARE_EVENT_THRESHOLD_MINUTES, SPLITTING_LEVELS, SPLITTING_TRIALS_PER_LEVEL);
+            splitting.run(SPLITTING_REPETITIONS);
+            System.out.println(splitting.produceReport());
+        }
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * Starts the resident simulation service on localhost, it runs until the process is stopped.
+     *
+     * @param port
+     */
+    private static void serve(int port){
+        Configuration defaults = new Configuration(WORKBENCH_COMPONENT_BUFFER_SIZE, CLOCK_INCREMENT_SIZE, NUM_SERVICE_TIMES, MAX_REPLICATION_LENGTH_HOURS);
+        defaults.setSeed(SEED);
+        ResultCache resultCache = newResultCache();
+        SimulationService service = new SimulationService(defaults, Runtime.getRuntime().availableProcessors(), resultCache);
+        try {
+            service.start(port);
+        } catch (IOException e){
+            throw new RuntimeException("Unable to start the simulation service", e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+        System.out.println(String.format("Simulation service listening on http://127.0.0.1:%d (POST /simulate, GET /health)", service.getPort()));
+    }
+
+    /**
+     * Runs the same seeded replications with the generic engine and with a simulator generated for the configuration,
+     * checks that both give identical results and reports the time taken by each.
+     *
+     */
+    private static void benchmarkSpecializedSimulator(){
+        Configuration configuration = new Configuration(WORKBENCH_COMPONENT_BUFFER_SIZE, CLOCK_INCREMENT_SIZE, NUM_SERVICE_TIMES, MAX_REPLICATION_LENGTH_HOURS);
+        configuration.setSeed(SEED != null ? SEED : BENCHMARK_SEED);
+        long start = System.nanoTime();
+        SpecializedSimulator simulator = SimulatorGenerator.compileIfAvailable(configuration);
+        if (simulator == null) {
+            return;
+        }
+        System.out.println(String.format("SPECIALIZED SIMULATOR BENCHMARK (generated and compiled in %.0f ms)", (System.nanoTime() - start) / 1e6));
+
+        double genericSeconds = 0.0;
+        double specializedSeconds = 0.0;
+        for (int replicationNumber = 1; replicationNumber <= BENCHMARK_REPLICATIONS; replicationNumber++){
+            Replication replication = new Replication(configuration, replicationNumber);
+            start = System.nanoTime();
+            replication.run();
+            double generic = (System.nanoTime() - start) / 1e9;
+            ReplicationResult expected = replication.getResult();
+
+            start = System.nanoTime();
+            ReplicationResult actual = simulator.run(replication.getSeed(), replicationNumber);
+            double specialized = (System.nanoTime() - start) / 1e9;
+
+            genericSeconds += generic;
+            specializedSeconds += specialized;
+            System.out.println(String.format("REPLICATION %d generic: %.2f s  specialized: %.2f s  identical: %b", replicationNumber, generic, specialized, SelfCheck.identicalResults(expected, actual)));
+        }
+        System.out.println(String.format("Total generic: %.2f s  specialized: %.2f s  speedup: %.1fx", genericSeconds, specializedSeconds, genericSeconds / specializedSeconds));
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * Summarizes a results file written by the default or optimization runs.
+     *
+     * @param file
+     * @param metricFilter only metrics containing this text, null for all
+     */
+    private static void query(File file, String metricFilter){
+        try {
+            System.out.println(ResultsQuery.summarize(file, metricFilter));
+        } catch (IOException e){
+            throw new RuntimeException("Unable to read " + file, e);
+        }
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * Writes the results of every complete replication to RESULTS_FILE, with the configuration description as the scenario.
+     *
+     * @param results
+     * @param configuration
+     */
+    private static void exportResults(ArrayList<ReplicationResult> results, Configuration configuration){
+        try (ColumnarResultsWriter resultsWriter = new ColumnarResultsWriter(new File(RESULTS_FILE))) {
+            for (int r = 0; r < results.size(); r++){
+                //Partial results would bias any summary of the file
+                if (!results.get(r).isPartial()) {
+                    resultsWriter.write(configuration.getDescription(), r + 1, results.get(r));
+                }
+            }
+        } catch (IOException e){
+            throw new RuntimeException("Unable to write " + RESULTS_FILE, e);
+        }
     }
 
     /**
@@ -109,19 +401,18 @@ public class SimulationDriver {
      * @param entities
      * @param clockIterations
      */
-    private static void produceSystemReport(HashMap<ComponentName, ArrayList<Component>> allCompletedComponents, ArrayList<Entity> entities, Integer clockIterations){
+    private static void produceSystemReport(HashMap<ComponentName, ArrayList<Component>> allCompletedComponents, ArrayList<Entity> entities, long clockIterations){
         System.out.println("SYSTEM VERIFICATION RESULTS");
         //Evaluate Little's law for the entire system
         for (ComponentName componentName : allCompletedComponents.keySet()){
             Double totalBufferSampleSum = 0.0;
             for (Entity entity : entities){
-                if (entity.getComponentBufferSampleSum().containsKey(componentName)) {
-                    totalBufferSampleSum += entity.getComponentBufferSampleSum().get(componentName);
-                }
+                totalBufferSampleSum += entity.getComponentBufferSampleSum(componentName);
             }
             Double avgNumberInSystem = totalBufferSampleSum/clockIterations;
             System.out.println (String.format("[%s] %s",componentName, Calculator.evaluateLittlesLaw(avgNumberInSystem, allCompletedComponents.get(componentName))));
         }
+        System.out.println(BottleneckRanking.produceRanking(entities));
         System.out.println("-----------------------------------------------------");
         System.out.println("-----------------------------------------------------");
     }
@@ -159,53 +450,78 @@ public class SimulationDriver {
     }
 
     /**
-     * Initialize all components.
+     * Steady-state estimates from the batches of each replication, after the warm-up period.
      *
-     * @return
+     * @param results
+     * @param configuration
      */
-    private static ArrayList<Entity> init(){
-        ArrayList<Entity> entities = new ArrayList<Entity>();
-
-        WorkBench workbenchOne = new WorkBench("WorkBench1", Product.P1, WORKBENCH_COMPONENT_BUFFER_SIZE);
-        workbenchOne.registerComponent(ComponentName.C1);
-        workbenchOne.setServiceTimes(NumberGenerator.generateExpNumberList(NUM_SERVICE_TIMES, Lambda.WORKSTATION1.value));
-
-        WorkBench workbenchTwo = new WorkBench("WorkBench2", Product.P2, WORKBENCH_COMPONENT_BUFFER_SIZE);
-        workbenchTwo.registerComponent(ComponentName.C1);
-        workbenchTwo.registerComponent(ComponentName.C2);
-        workbenchTwo.setServiceTimes(NumberGenerator.generateExpNumberList(NUM_SERVICE_TIMES, Lambda.WORKSTATION2.value));
-
-        WorkBench workbenchThree = new WorkBench("WorkBench3", Product.P3, WORKBENCH_COMPONENT_BUFFER_SIZE);
-        workbenchThree.registerComponent(ComponentName.C1);
-        workbenchThree.registerComponent(ComponentName.C3);
-        workbenchThree.setServiceTimes(NumberGenerator.generateExpNumberList(NUM_SERVICE_TIMES, Lambda.WORKSTATION3.value));
-
-        Inspector inspectorOne = new Inspector("Inspector1");
-        inspectorOne.registerComponent(ComponentName.C1);
-        inspectorOne.registerComponentForWorkbench(ComponentName.C1, workbenchOne);
-        inspectorOne.registerComponentForWorkbench(ComponentName.C1, workbenchTwo);
-        inspectorOne.registerComponentForWorkbench(ComponentName.C1, workbenchThree);
-        inspectorOne.registerWorkbenchPriority(workbenchOne, 1);
-        inspectorOne.registerWorkbenchPriority(workbenchTwo, 2);
-        inspectorOne.registerWorkbenchPriority(workbenchThree, 3);
-        inspectorOne.registerComponentServiceTimes(ComponentName.C1, NumberGenerator.generateExpNumberList(NUM_SERVICE_TIMES, Lambda.SERVINSP1.value));
-
-        Inspector inspectorTwo = new Inspector("Inspector2");
-        inspectorTwo.registerComponent(ComponentName.C2);
-        inspectorTwo.registerComponent(ComponentName.C3);
-        inspectorTwo.registerComponentForWorkbench(ComponentName.C2, workbenchTwo);
-        inspectorTwo.registerComponentForWorkbench(ComponentName.C3, workbenchThree);
-        inspectorTwo.registerWorkbenchPriority(workbenchTwo, 1);
-        inspectorTwo.registerWorkbenchPriority(workbenchThree, 2);
-        inspectorTwo.registerComponentServiceTimes(ComponentName.C2, NumberGenerator.generateExpNumberList(NUM_SERVICE_TIMES, Lambda.SERVINSP22.value));
-        inspectorTwo.registerComponentServiceTimes(ComponentName.C3, NumberGenerator.generateExpNumberList(NUM_SERVICE_TIMES, Lambda.SERVINSP23.value));
-
-        entities.add(inspectorOne);
-        entities.add(inspectorTwo);
-        entities.add(workbenchOne);
-        entities.add(workbenchTwo);
-        entities.add(workbenchThree);
-
-        return entities;
+    private static void outputBatchMeansReport(ArrayList<ReplicationResult> results, Configuration configuration){
+        System.out.println(String.format("STEADY-STATE BATCH MEANS (warm-up %.1f hrs, 95%% confidence intervals)", configuration.getWarmupHours()));
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < results.size(); r++){
+            sb.append(String.format("REPLICATION %d\n", r + 1));
+            for (EntityResult entityResult : results.get(r).getEntityResults()){
+                BatchMeans batchMeans = new BatchMeans(entityResult.getBatchValues());
+                sb.append(String.format("%s: %s\n", entityResult.getName(), batchMeans.produceReport(configuration.getBatchLengthHours())));
+            }
+        }
+        System.out.println(sb.toString());
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * P50/P95/P99 of the component system and inter-arrival times at each entity, and of the end-to-end system time,
+     * merged across all replications.
+     *
+     * @param results
+     */
+    private static void outputQuantileReport(ArrayList<ReplicationResult> results){
+        System.out.println(String.format("SYSTEM TIME QUANTILES (%d replications)", results.size()));
+        HashMap<String, EnumMap<ComponentName, QuantileSketch>> systemTimes = new HashMap<String, EnumMap<ComponentName, QuantileSketch>>();
+        HashMap<String, EnumMap<ComponentName, QuantileSketch>> interArrivalTimes = new HashMap<String, EnumMap<ComponentName, QuantileSketch>>();
+        EnumMap<ComponentName, QuantileSketch> endToEndSystemTimes = new EnumMap<ComponentName, QuantileSketch>(ComponentName.class);
+        ArrayList<String> entityNames = new ArrayList<String>();
+        for (ReplicationResult result : results){
+            for (EntityResult entityResult : result.getEntityResults()){
+                if (!systemTimes.containsKey(entityResult.getName())) {
+                    entityNames.add(entityResult.getName());
+                    systemTimes.put(entityResult.getName(), new EnumMap<ComponentName, QuantileSketch>(ComponentName.class));
+                    interArrivalTimes.put(entityResult.getName(), new EnumMap<ComponentName, QuantileSketch>(ComponentName.class));
+                }
+                mergeSketches(systemTimes.get(entityResult.getName()), entityResult.getSystemTimeSketches());
+                mergeSketches(interArrivalTimes.get(entityResult.getName()), entityResult.getInterArrivalTimeSketches());
+                mergeSketches(endToEndSystemTimes, entityResult.getEndToEndSystemTimeSketches());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String entityName : entityNames){
+            sb.append(String.format("%s:\n", entityName));
+            for (ComponentName componentName : systemTimes.get(entityName).keySet()){
+                sb.append(String.format("\t [%s] systemTime(mins) %s\n", componentName, Entity.formatQuantiles(systemTimes.get(entityName).get(componentName))));
+                sb.append(String.format("\t [%s] interArrivalTime(mins) %s\n", componentName, Entity.formatQuantiles(interArrivalTimes.get(entityName).get(componentName))));
+            }
+        }
+        for (ComponentName componentName : endToEndSystemTimes.keySet()){
+            sb.append(String.format("[%s] End-to-end systemTime(mins) %s\n", componentName, Entity.formatQuantiles(endToEndSystemTimes.get(componentName))));
+        }
+        System.out.println(sb.toString());
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    /**
+     * Merges each sketch into the matching sketch of the target, leaving the source sketches unchanged.
+     *
+     * @param target
+     * @param sketches
+     */
+    private static void mergeSketches(EnumMap<ComponentName, QuantileSketch> target, EnumMap<ComponentName, QuantileSketch> sketches){
+        for (ComponentName componentName : sketches.keySet()){
+            if (!target.containsKey(componentName)) {
+                target.put(componentName, new QuantileSketch());
+            }
+            target.get(componentName).merge(sketches.get(componentName));
+        }
     }
 }
@@ -0,0 +1,361 @@
+package analytic;
+
+import entities.Entity;
+import entities.Inspector;
+import entities.WorkBench;
+import entities.WorkStation;
+import globals.ComponentName;
+import globals.EntityType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Exact continuous-time Markov chain for the assembly line, built from the same inspector and workbench entities that
+ * are simulated. Valid because every service time is exponential and every buffer is finite.
+ *
+ * A state is an int array holding, for each inspector, (index of component under inspection * 2 + blocked flag), then
+ * for each workbench a busy flag followed by the occupancy of each of its component buffers. As in the simulation,
+ * components stay in the workbench buffer until assembly completes. Instantaneous actions (placing a component,
+ * unblocking an inspector, starting an assembly, Inspector2's random choice of the next component) are applied
+ * before a state is recorded, so only states in which time passes are kept.
+ */
+public class AssemblyMarkovChain {
+    private static final int MAX_ITERATIONS = 100000;
+    private static final double TOLERANCE = 1e-12;
+    private ArrayList<Inspector> inspectors;
+    private ArrayList<WorkBench> workbenches;
+    private HashMap<WorkBench, Integer> workbenchOffsets;                               //Position of each workbench's busy flag in the state array
+    private int stateLength;
+    private ArrayList<int[]> states;                                                    //Reachable states
+    private HashMap<String, Integer> stateIndex;                                        //State array (as string) to index in states
+    private ArrayList<HashMap<Integer, Double>> transitions;                            //Outgoing transition rates (per minute) of each state
+    private double[] stationaryDistribution;
+    private int iterations;
+
+    public AssemblyMarkovChain(ArrayList<Entity> entities){
+        this.inspectors = new ArrayList<Inspector>();
+        this.workbenches = new ArrayList<WorkBench>();
+        this.workbenchOffsets = new HashMap<WorkBench, Integer>();
+        for (Entity entity : entities){
+            if (entity.getEntityType() == EntityType.INSPECTOR) {
+                this.inspectors.add((Inspector) entity);
+            } else if (entity instanceof WorkStation) {
+                throw new IllegalArgumentException(String.format("%s pools several servers, the Markov chain models single-server workbenches only", entity.getName()));
+            } else {
+                this.workbenches.add((WorkBench) entity);
+            }
+        }
+        this.stateLength = this.inspectors.size();
+        for (WorkBench workbench : this.workbenches){
+            this.workbenchOffsets.put(workbench, this.stateLength);
+            this.stateLength += 1 + workbench.getRequiredComponents().size();
+        }
+    }
+
+    /**
+     * Generates the reachable state space and the sparse generator by breadth first search from the empty system.
+     *
+     */
+    public void generate(){
+        this.states = new ArrayList<int[]>();
+        this.stateIndex = new HashMap<String, Integer>();
+        this.transitions = new ArrayList<HashMap<Integer, Double>>();
+
+        //Initial state: empty buffers, every inspector inspecting its first component
+        this.getOrAddState(new int[this.stateLength]);
+
+        for (int i = 0; i < this.states.size(); i++){
+            int[] state = this.states.get(i);
+            HashMap<Integer, Double> outgoing = this.transitions.get(i);
+
+            //Inspection completions
+            for (int n = 0; n < this.inspectors.size(); n++){
+                if (state[n] % 2 == 0) {
+                    Inspector inspector = this.inspectors.get(n);
+                    ComponentName componentName = inspector.getInspectableComponents().get(state[n] / 2);
+                    int[] next = state.clone();
+                    next[n] = next[n] + 1;                                              //Inspection done, blocked until placed
+                    this.addTransitions(outgoing, next, inspector.getComponentServiceRate(componentName));
+                }
+            }
+
+            //Assembly completions, the units used are removed from each buffer
+            for (WorkBench workbench : this.workbenches){
+                int offset = this.workbenchOffsets.get(workbench);
+                if (state[offset] == 1) {
+                    int[] next = state.clone();
+                    next[offset] = 0;
+                    ArrayList<ComponentName> requiredComponents = workbench.getRequiredComponents();
+                    for (int c = 0; c < requiredComponents.size(); c++){
+                        next[offset + 1 + c] -= workbench.getRequiredUnits(requiredComponents.get(c));
+                    }
+                    this.addTransitions(outgoing, next, workbench.getServiceRate());
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies all instantaneous actions to the target state and adds the resulting transitions (split by Inspector2's
+     * random component choice) to outgoing.
+     *
+     * @param outgoing
+     * @param next
+     * @param rate
+     */
+    private void addTransitions(HashMap<Integer, Double> outgoing, int[] next, double rate){
+        ArrayList<int[]> settledStates = new ArrayList<int[]>();
+        ArrayList<Double> probabilities = new ArrayList<Double>();
+        this.settle(next, 1.0, settledStates, probabilities);
+        for (int i = 0; i < settledStates.size(); i++){
+            int target = this.getOrAddState(settledStates.get(i));
+            Double current = outgoing.get(target);
+            outgoing.put(target, (current == null ? 0.0 : current) + rate * probabilities.get(i));
+        }
+    }
+
+    /**
+     * Repeatedly places components held by blocked inspectors and starts assemblies until nothing more can happen
+     * instantaneously. Placing a component starts the next inspection, which branches when the inspector can inspect
+     * several component types.
+     *
+     * @param state
+     * @param probability
+     * @param settledStates
+     * @param probabilities
+     */
+    private void settle(int[] state, double probability, ArrayList<int[]> settledStates, ArrayList<Double> probabilities){
+        for (int n = 0; n < this.inspectors.size(); n++){
+            if (state[n] % 2 == 1 && this.placeComponent(state, n)) {
+                ArrayList<int[]> branches = new ArrayList<int[]>();
+                ArrayList<Double> branchProbabilities = new ArrayList<Double>();
+                this.startNextInspections(state, n, probability, branches, branchProbabilities);
+                for (int b = 0; b < branches.size(); b++){
+                    this.settle(branches.get(b), branchProbabilities.get(b), settledStates, probabilities);
+                }
+                return;
+            }
+        }
+
+        boolean assemblyStarted = false;
+        for (WorkBench workbench : this.workbenches){
+            int offset = this.workbenchOffsets.get(workbench);
+            if (state[offset] == 0) {
+                boolean componentsAvailable = true;
+                ArrayList<ComponentName> requiredComponents = workbench.getRequiredComponents();
+                for (int c = 0; c < requiredComponents.size(); c++){
+                    componentsAvailable &= state[offset + 1 + c] >= workbench.getRequiredUnits(requiredComponents.get(c));
+                }
+                if (componentsAvailable) {
+                    state[offset] = 1;
+                    assemblyStarted = true;
+                }
+            }
+        }
+        if (assemblyStarted) {
+            this.settle(state, probability, settledStates, probabilities);
+        } else {
+            settledStates.add(state);
+            probabilities.add(probability);
+        }
+    }
+
+    /**
+     * Branches on the next component inspected by inspector n, each equally likely.
+     *
+     * @param state
+     * @param n
+     * @param probability
+     * @param branches
+     * @param branchProbabilities
+     */
+    private void startNextInspections(int[] state, int n, double probability, ArrayList<int[]> branches, ArrayList<Double> branchProbabilities){
+        int numComponents = this.inspectors.get(n).getInspectableComponents().size();
+        for (int c = 0; c < numComponents; c++){
+            int[] branch = state.clone();
+            branch[n] = c * 2;
+            branches.add(branch);
+            branchProbabilities.add(probability / numComponents);
+        }
+    }
+
+    /**
+     * Mirrors Inspector.getNextWorkBench: the workbench with the least occupied buffer for the component wins, ties are
+     * broken by workbench priority. Returns false if every buffer is full.
+     *
+     * @param state
+     * @param n
+     * @return
+     */
+    private boolean placeComponent(int[] state, int n){
+        Inspector inspector = this.inspectors.get(n);
+        ComponentName componentName = inspector.getInspectableComponents().get(state[n] / 2);
+        WorkBench candidateWorkbench = null;
+        int candidatePosition = -1;
+        for (WorkBench workbench : inspector.getWorkbenchesForComponent(componentName)){
+            int position = this.workbenchOffsets.get(workbench) + 1 + workbench.getRequiredComponents().indexOf(componentName);
+            if (state[position] < workbench.getBufferCapacity(componentName)) {
+                if (candidateWorkbench == null || state[position] < state[candidatePosition]
+                        || (state[position] == state[candidatePosition] && inspector.getWorkbenchPriority(workbench) < inspector.getWorkbenchPriority(candidateWorkbench))) {
+                    candidateWorkbench = workbench;
+                    candidatePosition = position;
+                }
+            }
+        }
+        if (candidateWorkbench == null) {
+            return false;
+        }
+        state[candidatePosition] ++;
+        return true;
+    }
+
+    private int getOrAddState(int[] state){
+        String key = Arrays.toString(state);
+        Integer index = this.stateIndex.get(key);
+        if (index == null) {
+            index = this.states.size();
+            this.states.add(state);
+            this.stateIndex.put(key, index);
+            this.transitions.add(new HashMap<Integer, Double>());
+        }
+        return index;
+    }
+
+    /**
+     * Solves pi Q = 0 with Gauss-Seidel sweeps over the sparse generator (stored by incoming transition):
+     * pi_j = sum_i pi_i q_ij / q_j, renormalized after each sweep, until the largest relative change is below TOLERANCE.
+     *
+     */
+    public void solve(){
+        int numStates = this.states.size();
+        double[] outRates = new double[numStates];
+        int[] incomingCounts = new int[numStates + 1];
+        for (int i = 0; i < numStates; i++){
+            for (Integer target : this.transitions.get(i).keySet()){
+                if (target != i) {
+                    incomingCounts[target + 1] ++;
+                }
+            }
+        }
+        for (int j = 0; j < numStates; j++){
+            incomingCounts[j + 1] += incomingCounts[j];
+        }
+
+        //Compressed sparse column form of the off diagonal generator entries
+        int[] fill = Arrays.copyOf(incomingCounts, numStates);
+        int[] sources = new int[incomingCounts[numStates]];
+        double[] rates = new double[incomingCounts[numStates]];
+        for (int i = 0; i < numStates; i++){
+            for (Integer target : this.transitions.get(i).keySet()){
+                if (target != i) {
+                    double rate = this.transitions.get(i).get(target);
+                    sources[fill[target]] = i;
+                    rates[fill[target]] = rate;
+                    fill[target] ++;
+                    outRates[i] += rate;
+                }
+            }
+        }
+
+        double[] pi = new double[numStates];
+        Arrays.fill(pi, 1.0 / numStates);
+        this.iterations = 0;
+        double maxChange = Double.MAX_VALUE;
+        while (maxChange > TOLERANCE && this.iterations < MAX_ITERATIONS) {
+            maxChange = 0.0;
+            double sum = 0.0;
+            for (int j = 0; j < numStates; j++){
+                double inflow = 0.0;
+                for (int k = incomingCounts[j]; k < incomingCounts[j + 1]; k++){
+                    inflow += pi[sources[k]] * rates[k];
+                }
+                double updated = inflow / outRates[j];
+                maxChange = Math.max(maxChange, Math.abs(updated - pi[j]) / Math.max(updated, 1e-300));
+                pi[j] = updated;
+                sum += updated;
+            }
+            for (int j = 0; j < numStates; j++){
+                pi[j] /= sum;
+            }
+            this.iterations ++;
+        }
+        this.stationaryDistribution = pi;
+    }
+
+    public int getNumberOfStates(){ return this.states.size(); }
+
+    public int getIterations(){ return this.iterations; }
+
+    /**
+     * Exact idle % (time blocked) of an inspector.
+     *
+     * @param inspector
+     * @return
+     */
+    public double getIdleProportion(Inspector inspector){
+        int n = this.inspectors.indexOf(inspector);
+        double blocked = 0.0;
+        for (int i = 0; i < this.states.size(); i++){
+            if (this.states.get(i)[n] % 2 == 1) {
+                blocked += this.stationaryDistribution[i];
+            }
+        }
+        return blocked * 100;
+    }
+
+    /**
+     * Exact throughput (assembled products per hour) of a workbench: P(busy) * service rate.
+     *
+     * @param workbench
+     * @return
+     */
+    public double getThroughput(WorkBench workbench){
+        int offset = this.workbenchOffsets.get(workbench);
+        double busy = 0.0;
+        for (int i = 0; i < this.states.size(); i++){
+            busy += this.stationaryDistribution[i] * this.states.get(i)[offset];
+        }
+        return busy * workbench.getServiceRate() * 60;
+    }
+
+    /**
+     * Exact mean number of components in a workbench buffer (including the component being assembled).
+     *
+     * @param workbench
+     * @param componentName
+     * @return
+     */
+    public double getAverageBufferOccupancy(WorkBench workbench, ComponentName componentName){
+        int position = this.workbenchOffsets.get(workbench) + 1 + workbench.getRequiredComponents().indexOf(componentName);
+        double occupancy = 0.0;
+        for (int i = 0; i < this.states.size(); i++){
+            occupancy += this.stationaryDistribution[i] * this.states.get(i)[position];
+        }
+        return occupancy;
+    }
+
+    public String produceReport(){
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("States: %d  Transitions: %d  Gauss-Seidel iterations: %d", this.getNumberOfStates(), this.getNumberOfTransitions(), this.iterations));
+        for (Inspector inspector : this.inspectors){
+            result.append(String.format("\n[%s]  Idle %%: %f", inspector.getName(), this.getIdleProportion(inspector)));
+        }
+        for (WorkBench workbench : this.workbenches){
+            result.append(String.format("\n[%s]  Throughput(AssembledProducts/hr): %f", workbench.getName(), this.getThroughput(workbench)));
+            for (ComponentName componentName : workbench.getRequiredComponents()){
+                result.append(String.format("\n\t [%s] avgBufferOccupancy: %f", componentName, this.getAverageBufferOccupancy(workbench, componentName)));
+            }
+        }
+        return result.toString();
+    }
+
+    private int getNumberOfTransitions(){
+        int numTransitions = 0;
+        for (HashMap<Integer, Double> outgoing : this.transitions){
+            numTransitions += outgoing.size();
+        }
+        return numTransitions;
+    }
+}
@@ -0,0 +1,303 @@
+package cache;
+
+import globals.ComponentName;
+import globals.EntityState;
+import globals.EntityType;
+import globals.Lambda;
+import simulation.Configuration;
+import simulation.EntityResult;
+import simulation.Replication;
+import simulation.ReplicationResult;
+import statistics.QuantileSketch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * On-disk, content-addressed store of replication results. Each seeded replication is stored in its own small binary
+ * file named by a SHA-256 hash of everything that determines its output: the compiled model, the configuration, the
+ * Lambda rates and the seed. The store is trimmed to maxBytes, evicting the least recently used files, when it is
+ * opened and every EVICTION_INTERVAL writes, so it may run over by that many results in between.
+ */
+public class ResultCache {
+    private static final int FORMAT_VERSION = 4;                                        //Bump whenever the file layout below changes
+    private static final String FILE_EXTENSION = ".rep";
+    private static final int EVICTION_INTERVAL = 64;                                    //Writes between evictions, each one lists the directory
+    private static final String MODEL_FINGERPRINT = fingerprintModel();                 //Hash of the compiled classes, so any change to the code misses the old results
+    private File directory;                                                             //Directory holding the cached results
+    private long maxBytes;                                                              //Upper bound on the total size of the store
+    private int writesSinceEviction;
+    private int hits;
+    private int misses;
+
+    public ResultCache(File directory, long maxBytes){
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.directory.mkdirs();
+        this.evict();
+    }
+
+    /**
+     * Returns the cached result of a replication, only running the replication if it has not been computed before.
+     * Unseeded replications can not be reproduced, so they are always run and never stored. Neither are partial results
+     * of a replication stopped by its run control.
+     *
+     * @param replication
+     * @return
+     */
+    public ReplicationResult run(Replication replication){
+        if (replication.getSeed() == null) {
+            replication.run();
+            return replication.getResult();
+        }
+
+        String key = key(replication.getConfiguration(), replication.getSeed());
+        ReplicationResult result = this.get(key);
+        if (result == null) {
+            replication.run();
+            result = replication.getResult();
+            if (!result.isPartial()) {
+                this.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Canonical hash of the full configuration of a replication.
+     *
+     * @param configuration
+     * @param seed
+     * @return
+     */
+    public static String key(Configuration configuration, long seed){
+        StringBuilder canonical = new StringBuilder();
+        canonical.append("model=").append(MODEL_FINGERPRINT).append(';');
+        canonical.append(configuration.getCanonicalString()).append(';');
+        for (Lambda lambda : Lambda.values()){
+            canonical.append(lambda.name()).append('=').append(Double.toString(lambda.value)).append(';');
+        }
+        canonical.append("seed=").append(seed);
+
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e){
+            throw new RuntimeException("Unable to hash replication configuration", e);
+        }
+    }
+
+    /**
+     * Hashes every class file on the class path entry (directory or jar) that holds the model, so results computed by
+     * any other build of the code are never reused. Hashing the whole entry also covers the entities, the number
+     * generators and anything else the model calls, at the cost of missing the cache after unrelated changes. If the
+     * classes can not be read the fingerprint is unique to this process, which only reuses results within the run.
+     *
+     * @return
+     */
+    private static String fingerprintModel(){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Path location = Paths.get(Replication.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(location)) {
+                ArrayList<Path> classFiles = new ArrayList<Path>();
+                try (Stream<Path> paths = Files.walk(location)) {
+                    paths.filter(path -> path.toString().endsWith(".class")).sorted().forEach(classFiles::add);
+                }
+                for (Path classFile : classFiles){
+                    digest.update(location.relativize(classFile).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(classFile));
+                }
+            } else {
+                digest.update(Files.readAllBytes(location));
+            }
+            return hex(digest.digest());
+        } catch (Exception e){
+            System.out.println(String.format("Unable to fingerprint the model classes, cached results will not be reused across runs: %s", e));
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    private static String hex(byte[] bytes){
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes){
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Returns the cached result for a key, or null if it is not in the store (or can not be read).
+     *
+     * @param key
+     * @return
+     */
+    public synchronized ReplicationResult get(String key){
+        File file = new File(this.directory, key + FILE_EXTENSION);
+        if (!file.exists()) {
+            this.misses ++;
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            ReplicationResult result = read(in);
+            file.setLastModified(System.currentTimeMillis());                           //Mark as recently used for eviction
+            this.hits ++;
+            return result;
+        } catch (IOException e){
+            file.delete();
+            this.misses ++;
+            return null;
+        }
+    }
+
+    /**
+     * Stores a result under a key, evicting least recently used results every EVICTION_INTERVAL writes.
+     *
+     * @param key
+     * @param result
+     */
+    public synchronized void put(String key, ReplicationResult result){
+        File file = new File(this.directory, key + FILE_EXTENSION);
+        File temporaryFile = new File(this.directory, key + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                write(out, result);
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e){
+            temporaryFile.delete();
+            System.out.println(String.format("Unable to cache replication result %s: %s", key, e.getMessage()));
+            return;
+        }
+        this.writesSinceEviction ++;
+        if (this.writesSinceEviction >= EVICTION_INTERVAL) {
+            this.evict();
+        }
+    }
+
+    /**
+     * Deletes least recently used results until the store fits in maxBytes.
+     *
+     */
+    private synchronized void evict(){
+        this.writesSinceEviction = 0;
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files){
+            totalBytes += file.length();
+        }
+        if (totalBytes <= this.maxBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files){
+            if (totalBytes <= this.maxBytes) {
+                break;
+            }
+            totalBytes -= file.length();
+            file.delete();
+        }
+    }
+
+    private static void write(DataOutputStream out, ReplicationResult result) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(result.getSeed());
+        out.writeDouble(result.getSimulatedTime());
+        out.writeUTF(result.getStopReason() == null ? "" : result.getStopReason());
+        out.writeShort(result.getEntityResults().size());
+        for (EntityResult entityResult : result.getEntityResults()){
+            out.writeUTF(entityResult.getName());
+            out.writeByte(entityResult.getEntityType().ordinal());
+            out.writeDouble(entityResult.getQuantityOfInterest());
+            out.writeLong(entityResult.getServicesCompleted());
+            out.writeByte(entityResult.getStateTimes().size());
+            for (Map.Entry<EntityState, Double> stateTime : entityResult.getStateTimes().entrySet()){
+                out.writeByte(stateTime.getKey().ordinal());
+                out.writeDouble(stateTime.getValue());
+            }
+            out.writeByte(entityResult.getLittlesLawStatistics().size());
+            for (Map.Entry<ComponentName, double[]> statistics : entityResult.getLittlesLawStatistics().entrySet()){
+                out.writeByte(statistics.getKey().ordinal());
+                for (double value : statistics.getValue()){
+                    out.writeDouble(value);
+                }
+            }
+            out.writeInt(entityResult.getBatchValues().size());
+            for (Double batchValue : entityResult.getBatchValues()){
+                out.writeDouble(batchValue);
+            }
+            writeSketches(out, entityResult.getSystemTimeSketches());
+            writeSketches(out, entityResult.getInterArrivalTimeSketches());
+            writeSketches(out, entityResult.getEndToEndSystemTimeSketches());
+        }
+    }
+
+    private static void writeSketches(DataOutputStream out, EnumMap<ComponentName, QuantileSketch> sketches) throws IOException {
+        out.writeByte(sketches.size());
+        for (Map.Entry<ComponentName, QuantileSketch> sketch : sketches.entrySet()){
+            out.writeByte(sketch.getKey().ordinal());
+            sketch.getValue().write(out);
+        }
+    }
+
+    private static void readSketches(DataInputStream in, EnumMap<ComponentName, QuantileSketch> sketches) throws IOException {
+        int numSketches = in.readByte();
+        for (int s = 0; s < numSketches; s++){
+            sketches.put(ComponentName.values()[in.readByte()], QuantileSketch.read(in));
+        }
+    }
+
+    private static ReplicationResult read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported cache format");
+        }
+        long seed = in.readLong();
+        double simulatedTime = in.readDouble();
+        String stopReason = in.readUTF();
+        int numEntities = in.readShort();
+        ArrayList<EntityResult> entityResults = new ArrayList<EntityResult>();
+        for (int i = 0; i < numEntities; i++){
+            String name = in.readUTF();
+            EntityType entityType = EntityType.values()[in.readByte()];
+            double quantityOfInterest = in.readDouble();
+            long servicesCompleted = in.readLong();
+            EntityResult entityResult = new EntityResult(name, entityType, quantityOfInterest, servicesCompleted);
+            int numStates = in.readByte();
+            for (int s = 0; s < numStates; s++){
+                entityResult.getStateTimes().put(EntityState.values()[in.readByte()], in.readDouble());
+            }
+            int numComponents = in.readByte();
+            for (int c = 0; c < numComponents; c++){
+                ComponentName componentName = ComponentName.values()[in.readByte()];
+                entityResult.getLittlesLawStatistics().put(componentName, new double[]{in.readDouble(), in.readDouble(), in.readDouble()});
+            }
+            int numBatches = in.readInt();
+            for (int b = 0; b < numBatches; b++){
+                entityResult.getBatchValues().add(in.readDouble());
+            }
+            readSketches(in, entityResult.getSystemTimeSketches());
+            readSketches(in, entityResult.getInterArrivalTimeSketches());
+            readSketches(in, entityResult.getEndToEndSystemTimeSketches());
+            entityResults.add(entityResult);
+        }
+        return new ReplicationResult(seed, simulatedTime, stopReason, entityResults);
+    }
+
+    public int getHits(){ return this.hits; }
+
+    public int getMisses(){ return this.misses; }
+}
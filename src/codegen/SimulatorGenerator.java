@@ -0,0 +1,407 @@
+package codegen;
+
+import entities.Entity;
+import entities.Inspector;
+import entities.ServiceTimes;
+import entities.WorkBench;
+import entities.WorkStation;
+import globals.ComponentName;
+import globals.EntityState;
+import globals.EntityType;
+import globals.Ticks;
+import simulation.Configuration;
+import simulation.Replication;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Generates a simulator specialized to the topology Replication.init() builds for a configuration, and compiles it at
+ * runtime with the system Java compiler.
+ *
+ * The generated simulate() method reproduces Replication.run() for the quantities of interest, services completed and
+ * state times: every entity's state, service time remaining, service counters and workbench buffer counts are locals,
+ * the entities are updated in a fixed unrolled sequence, and each inspector's choice of workbench is unrolled into
+ * comparisons in priority order. Service times are drawn as they are used, with the rates, buffer capacities and bills
+ * of material written in as constants. Per component statistics (Little's law, quantiles, batches) are not produced.
+ */
+public class SimulatorGenerator {
+    private static final String CLASS_NAME = "GeneratedSimulator";
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE;                       //As Inspector.MAX_BUFFER_SIZE, larger than any buffer size
+
+    private Configuration configuration;
+    private ArrayList<Entity> entities;                                                 //Topology the code is generated from, in update order
+    private HashMap<Entity, Integer> entityIndices;
+    private ArrayList<Integer> streams;                                                 //Stream index of each random number slot
+    private StringBuilder source;
+
+    public SimulatorGenerator(Configuration configuration){
+        this.configuration = configuration;
+        this.entities = Replication.init(configuration);
+        for (Entity entity : this.entities){
+            if (entity instanceof WorkStation) {
+                throw new IllegalArgumentException(String.format("%s pools several servers, specialized simulators support single-server workbenches only", entity.getName()));
+            }
+        }
+        this.entityIndices = new HashMap<Entity, Integer>();
+        for (int e = 0; e < this.entities.size(); e++){
+            this.entityIndices.put(this.entities.get(e), e);
+        }
+    }
+
+    /**
+     * Generates, compiles and loads a simulator for the configuration, or returns null after saying why when that is not
+     * possible: workbenches with several servers are not supported, and a JRE has no system Java compiler. Callers then
+     * run the generic engine instead.
+     *
+     * @param configuration
+     * @return
+     */
+    public static SpecializedSimulator compileIfAvailable(Configuration configuration){
+        String unavailableReason = null;
+        if (configuration.getWorkbenchServers() > 1) {
+            unavailableReason = "its workbenches pool several servers";
+        } else if (ToolProvider.getSystemJavaCompiler() == null) {
+            unavailableReason = "no Java compiler is available (it needs a JDK rather than a JRE)";
+        }
+        if (unavailableReason != null) {
+            System.out.println(String.format("No specialized simulator for %s since %s, using the generic engine", configuration.getDescription(), unavailableReason));
+            return null;
+        }
+        return new SimulatorGenerator(configuration).compile();
+    }
+
+    /**
+     * Generates, compiles and loads the simulator.
+     *
+     * @return
+     */
+    public SpecializedSimulator compile(){
+        String source = this.generate();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available, specialized simulators need a JDK");
+        }
+        StringWriter diagnostics = new StringWriter();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(null, null, null);
+        HashMap<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardFileManager){
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling){
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind){
+                    @Override
+                    public OutputStream openOutputStream(){
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///codegen/" + CLASS_NAME + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE){
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors){
+                return source;
+            }
+        };
+        ArrayList<String> options = new ArrayList<String>(Arrays.asList("-classpath", System.getProperty("java.class.path")));
+        if (!compiler.getTask(diagnostics, fileManager, null, options, null, Arrays.asList(sourceFile)).call()) {
+            throw new IllegalStateException("Generated simulator failed to compile:\n" + diagnostics);
+        }
+
+        ClassLoader classLoader = new ClassLoader(SpecializedSimulator.class.getClassLoader()){
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return this.defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            }
+        };
+        try {
+            SpecializedSimulator simulator = (SpecializedSimulator) classLoader.loadClass("codegen." + CLASS_NAME).getDeclaredConstructor().newInstance();
+            String[] entityNames = new String[this.entities.size()];
+            EntityType[] entityTypes = new EntityType[this.entities.size()];
+            for (int e = 0; e < this.entities.size(); e++){
+                entityNames[e] = this.entities.get(e).getName();
+                entityTypes[e] = this.entities.get(e).getEntityType();
+            }
+            int[] streams = new int[this.streams.size()];
+            for (int slot = 0; slot < streams.length; slot++){
+                streams[slot] = this.streams.get(slot);
+            }
+            simulator.configure(entityNames, entityTypes, streams, Ticks.fromSeconds(this.configuration.getClockIncrementSize()), this.configuration.getMaxReplicationLengthHours());
+            return simulator;
+        } catch (ReflectiveOperationException e){
+            throw new IllegalStateException("Unable to load generated simulator", e);
+        }
+    }
+
+    /**
+     * Returns the source of the specialized simulator.
+     *
+     * @return
+     */
+    public String generate(){
+        this.source = new StringBuilder();
+        this.streams = new ArrayList<Integer>();
+        long clockIncrementSize = Ticks.fromSeconds(this.configuration.getClockIncrementSize());
+        long maxReplicationLength = Ticks.fromHours(this.configuration.getMaxReplicationLengthHours());
+
+        this.line(0, "package codegen;");
+        this.line(0, "");
+        this.line(0, "public final class " + CLASS_NAME + " extends SpecializedSimulator {");
+        this.line(1, "@Override");
+        this.line(1, "protected void simulate(long[] random, long[] stateTimes, int[] servicesCompleted, int[] outcome){");
+        for (int e = 0; e < this.entities.size(); e++){
+            this.declareLocals(e);
+        }
+        this.line(2, "int iterations = 0;");
+        this.line(2, "int doneEntity = -1;");
+        this.line(2, "int maxLengthReached = 0;");
+        this.line(2, "boolean complete = false;");
+        this.line(2, "while (!complete) {");
+        for (int e = 0; e < this.entities.size(); e++){
+            Entity entity = this.entities.get(e);
+            this.line(3, "//" + entity.getName());
+            this.line(3, "if (s" + e + " != " + state(EntityState.DONE) + ") {");
+            this.line(4, "int state = s" + e + ";");
+            this.line(4, "stateTimes[" + (e * EntityState.values().length) + " + state] += " + clockIncrementSize + "L;");
+            if (entity.getEntityType() == EntityType.INSPECTOR) {
+                this.updateInspector(e, (Inspector) entity, clockIncrementSize);
+            } else {
+                this.updateWorkbench(e, (WorkBench) entity, clockIncrementSize);
+            }
+            this.line(3, "} else {");
+            this.line(4, "doneEntity = " + e + ";");
+            this.line(4, "complete = true;");
+            this.line(3, "}");
+        }
+        this.line(3, "if ((long) iterations * " + clockIncrementSize + "L > " + maxReplicationLength + "L) {");
+        this.line(4, "maxLengthReached = 1;");
+        this.line(4, "complete = true;");
+        this.line(3, "}");
+        this.line(3, "iterations ++;");
+        this.line(2, "}");
+        for (int e = 0; e < this.entities.size(); e++){
+            this.line(2, "servicesCompleted[" + e + "] = n" + e + ";");
+        }
+        this.line(2, "outcome[0] = iterations;");
+        this.line(2, "outcome[1] = doneEntity;");
+        this.line(2, "outcome[2] = maxLengthReached;");
+        this.line(1, "}");
+        this.line(0, "}");
+        return this.source.toString();
+    }
+
+    /**
+     * Declares an entity's locals: state, service time remaining, services completed and stream positions, plus the
+     * component under inspection for an inspector or the buffer counts and count of short buffers for a workbench.
+     *
+     * @param e
+     */
+    private void declareLocals(int e){
+        Entity entity = this.entities.get(e);
+        this.line(2, "int s" + e + " = " + state(EntityState.INITIALIZED) + ";");
+        this.line(2, "long r" + e + " = 0L;");
+        this.line(2, "int n" + e + " = 0;");
+        if (entity.getEntityType() == EntityType.INSPECTOR) {
+            Inspector inspector = (Inspector) entity;
+            this.line(2, "int c" + e + " = 0;");
+            for (int k = 0; k < inspector.getInspectableComponents().size(); k++){
+                this.line(2, "int u" + e + "_" + k + " = 0;");
+            }
+        } else {
+            WorkBench workbench = (WorkBench) entity;
+            this.line(2, "int u" + e + " = 0;");
+            for (ComponentName componentName : workbench.getRequiredComponents()){
+                this.line(2, "int b" + e + "_" + componentName + " = 0;");
+            }
+            this.line(2, "int h" + e + " = " + workbench.getRequiredComponents().size() + ";");
+        }
+    }
+
+    /**
+     * As Inspector.clockUpdate(): place the inspected component once its inspection is over (or retry while BLOCKED),
+     * count down an inspection, or start the first one.
+     *
+     * @param e
+     * @param inspector
+     * @param clockIncrementSize
+     */
+    private void updateInspector(int e, Inspector inspector, long clockIncrementSize){
+        ArrayList<ComponentName> components = inspector.getInspectableComponents();
+        int choiceSlot = components.size() > 1 ? this.slot(inspector.getChoiceStream(), inspector.getName() + " component choice") : -1;
+        int[] serviceSlots = new int[components.size()];
+        for (int k = 0; k < components.size(); k++){
+            serviceSlots[k] = this.slot(inspector.getComponentServiceTimes(components.get(k)).getStream(), inspector.getName() + " " + components.get(k));
+        }
+
+        this.line(4, "if ((state == " + state(EntityState.ACTIVE) + " && r" + e + " <= 0L) || state == " + state(EntityState.BLOCKED) + ") {");
+        this.line(5, "int workbench = -1;");
+        for (int k = 0; k < components.size(); k++){
+            ComponentName componentName = components.get(k);
+            this.line(5, (k == 0 ? "" : "} else ") + "if (c" + e + " == " + k + ") {");
+            this.line(6, "int minBufferSize = " + MAX_BUFFER_SIZE + ";");
+            ArrayList<WorkBench> candidates = new ArrayList<WorkBench>();
+            for (WorkBench workbench : inspector.getRegisteredWorkbenches()){
+                if (workbench.getRequiredUnits(componentName) > 0) {
+                    candidates.add(workbench);
+                }
+            }
+            candidates.sort(Comparator.comparing(inspector::getWorkbenchPriority));
+            for (WorkBench workbench : candidates){
+                String buffer = this.buffer(workbench, componentName);
+                this.line(6, "if (" + buffer + " < " + workbench.getBufferCapacity(componentName) + " && " + buffer + " < minBufferSize) {");
+                this.line(7, "minBufferSize = " + buffer + ";");
+                this.line(7, "workbench = " + this.entityIndices.get(workbench) + ";");
+                this.line(6, "}");
+            }
+            for (int w = 0; w < candidates.size(); w++){
+                WorkBench workbench = candidates.get(w);
+                int index = this.entityIndices.get(workbench);
+                String buffer = this.buffer(workbench, componentName);
+                this.line(6, (w == 0 ? "" : "} else ") + "if (workbench == " + index + ") {");
+                this.line(7, buffer + " ++;");
+                this.line(7, "if (" + buffer + " == " + workbench.getRequiredUnits(componentName) + ") {");
+                this.line(8, "h" + index + " --;");
+                this.line(7, "}");
+            }
+            if (!candidates.isEmpty()) {
+                this.line(6, "}");
+            }
+        }
+        this.line(5, "}");
+        this.line(5, "if (workbench >= 0) {");
+        this.line(6, "n" + e + " ++;");
+        this.nextComponentToInspect(6, e, inspector, choiceSlot, serviceSlots);
+        this.line(5, "} else {");
+        this.line(6, "s" + e + " = " + state(EntityState.BLOCKED) + ";");
+        this.line(5, "}");
+        this.line(4, "} else if (state == " + state(EntityState.ACTIVE) + ") {");
+        this.line(5, "r" + e + " -= " + clockIncrementSize + "L;");
+        this.line(4, "} else {");
+        this.nextComponentToInspect(5, e, inspector, choiceSlot, serviceSlots);
+        this.line(4, "}");
+    }
+
+    /**
+     * As Inspector.getNextComponentToInspect(): choose the next component and start inspecting it, or become DONE
+     * when its service times have all been used.
+     *
+     * @param indent
+     * @param e
+     * @param inspector
+     * @param choiceSlot
+     * @param serviceSlots
+     */
+    private void nextComponentToInspect(int indent, int e, Inspector inspector, int choiceSlot, int[] serviceSlots){
+        ArrayList<ComponentName> components = inspector.getInspectableComponents();
+        this.line(indent, "c" + e + " = " + (choiceSlot < 0 ? "0" : "nextInt(random, " + choiceSlot + ", " + components.size() + ")") + ";");
+        for (int k = 0; k < components.size(); k++){
+            ComponentName componentName = components.get(k);
+            this.line(indent, (k == 0 ? "" : "} else ") + "if (c" + e + " == " + k + ") {");
+            this.line(indent + 1, "if (u" + e + "_" + k + " < " + inspector.getComponentServiceTimes(componentName).getNumServiceTimes() + ") {");
+            this.line(indent + 2, "u" + e + "_" + k + " ++;");
+            this.line(indent + 2, "s" + e + " = " + state(EntityState.ACTIVE) + ";");
+            this.line(indent + 2, "r" + e + " = " + draw(serviceSlots[k], inspector.getComponentServiceRate(componentName)) + ";");
+            this.line(indent + 1, "} else {");
+            this.line(indent + 2, "s" + e + " = " + state(EntityState.DONE) + ";");
+            this.line(indent + 1, "}");
+        }
+        this.line(indent, "}");
+    }
+
+    /**
+     * As WorkBench.clockUpdate(): complete a product once its assembly is over, count down an assembly, or try to
+     * start one.
+     *
+     * @param e
+     * @param workbench
+     * @param clockIncrementSize
+     */
+    private void updateWorkbench(int e, WorkBench workbench, long clockIncrementSize){
+        int serviceSlot = this.slot(workbench.getServiceTimes().getStream(), workbench.getName());
+        this.line(4, "if (state == " + state(EntityState.ACTIVE) + " && r" + e + " > 0L) {");
+        this.line(5, "r" + e + " -= " + clockIncrementSize + "L;");
+        this.line(4, "} else {");
+        this.line(5, "if (state == " + state(EntityState.ACTIVE) + ") {");
+        for (ComponentName componentName : workbench.getRequiredComponents()){
+            String buffer = this.buffer(workbench, componentName);
+            int units = workbench.getRequiredUnits(componentName);
+            this.line(6, buffer + " -= " + units + ";");
+            this.line(6, "if (" + buffer + " < " + units + ") {");
+            this.line(7, "h" + e + " ++;");
+            this.line(6, "}");
+        }
+        this.line(6, "n" + e + " ++;");
+        this.line(5, "}");
+        this.line(5, "if (h" + e + " == 0) {");
+        this.line(6, "if (u" + e + " == " + workbench.getServiceTimes().getNumServiceTimes() + ") {");
+        this.line(7, "throw new java.util.NoSuchElementException(\"No service times remaining for " + workbench.getName() + "\");");
+        this.line(6, "}");
+        this.line(6, "u" + e + " ++;");
+        this.line(6, "s" + e + " = " + state(EntityState.ACTIVE) + ";");
+        this.line(6, "r" + e + " = " + draw(serviceSlot, workbench.getServiceRate()) + ";");
+        this.line(5, "} else {");
+        this.line(6, "s" + e + " = " + state(EntityState.BLOCKED) + ";");
+        this.line(5, "}");
+        this.line(4, "}");
+    }
+
+    /**
+     * Allocates a random number slot for a stream of the replication seed.
+     *
+     * @param stream
+     * @param description
+     * @return
+     */
+    private int slot(int stream, String description){
+        if (stream < 0) {
+            throw new IllegalArgumentException(String.format("%s does not draw from a stream of the replication seed", description));
+        }
+        this.streams.add(stream);
+        return this.streams.size() - 1;
+    }
+
+    private String buffer(WorkBench workbench, ComponentName componentName){
+        return "b" + this.entityIndices.get(workbench) + "_" + componentName;
+    }
+
+    /**
+     * Expression drawing a service time (ticks), evaluated exactly as ServiceTimes does.
+     *
+     * @param slot
+     * @param rate
+     * @return
+     */
+    private static String draw(int slot, Double rate){
+        return "Math.round(Math.log(1 - nextDouble(random, " + slot + ")) / (-" + Double.toString(rate) + ") * 60 * " + Ticks.TICKS_PER_SECOND + "L)";
+    }
+
+    private static String state(EntityState state){
+        return Integer.toString(state.ordinal());
+    }
+
+    private void line(int indent, String text){
+        for (int i = 0; i < indent; i++){
+            this.source.append("    ");
+        }
+        this.source.append(text).append('\n');
+    }
+}
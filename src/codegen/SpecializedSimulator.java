@@ -0,0 +1,157 @@
+package codegen;
+
+import globals.EntityState;
+import globals.EntityType;
+import globals.Ticks;
+import simulation.EntityResult;
+import simulation.ReplicationResult;
+import statistics.NumberGenerator;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Base class of the simulators generated by SimulatorGenerator. A generated subclass implements simulate() for one
+ * topology and configuration, with every entity's state held in locals and every routing decision unrolled. This class
+ * seeds its random number streams and turns its raw outputs into a ReplicationResult.
+ *
+ * The streams are java.util.Random's linear congruential generator, kept as one long per stream in an array so the
+ * generated code draws exactly the numbers the entities would draw from their own Random instances.
+ */
+public abstract class SpecializedSimulator {
+    private static final long MULTIPLIER = 0x5DEECE66DL;                                //java.util.Random constants
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private String[] entityNames;                                                       //Name of each entity, in update order
+    private EntityType[] entityTypes;
+    private int[] streams;                                                              //Stream index (of the replication seed) of each random number slot
+    private long clockIncrementSize;                                                    //Ticks per clock iteration
+    private Double maxReplicationLengthHours;
+
+    /**
+     * Called by the generator once the class has been loaded.
+     *
+     * @param entityNames
+     * @param entityTypes
+     * @param streams
+     * @param clockIncrementSize
+     * @param maxReplicationLengthHours
+     */
+    void configure(String[] entityNames, EntityType[] entityTypes, int[] streams, long clockIncrementSize, Double maxReplicationLengthHours){
+        this.entityNames = entityNames;
+        this.entityTypes = entityTypes;
+        this.streams = streams;
+        this.clockIncrementSize = clockIncrementSize;
+        this.maxReplicationLengthHours = maxReplicationLengthHours;
+    }
+
+    /**
+     * Runs one replication. The generated code fills in the outputs:
+     *  - stateTimes: time (ticks) spent in each state, indexed by entity * EntityState count + state ordinal
+     *  - servicesCompleted: by entity
+     *  - outcome: {clock iterations, last entity found DONE or -1, 1 if MAX_REPLICATION_LENGTH_HOURS was reached}
+     *
+     * @param random one state per random number slot
+     * @param stateTimes
+     * @param servicesCompleted
+     * @param outcome
+     */
+    protected abstract void simulate(long[] random, long[] stateTimes, int[] servicesCompleted, int[] outcome);
+
+    /**
+     * Runs a replication with the same streams as Replication.run() for the given seed.
+     *
+     * @param seed replication seed, null for unseeded streams
+     * @param replicationNumber used in the stop reason
+     * @return
+     */
+    public ReplicationResult run(Long seed, int replicationNumber){
+        long[] random = new long[this.streams.length];
+        Random unseeded = seed == null ? new Random() : null;
+        for (int slot = 0; slot < this.streams.length; slot++){
+            long streamSeed = seed == null ? unseeded.nextLong() : NumberGenerator.streamSeed(seed, this.streams[slot]);
+            random[slot] = (streamSeed ^ MULTIPLIER) & MASK;
+        }
+        int numStates = EntityState.values().length;
+        long[] stateTimes = new long[this.entityNames.length * numStates];
+        int[] servicesCompleted = new int[this.entityNames.length];
+        int[] outcome = new int[3];
+        this.simulate(random, stateTimes, servicesCompleted, outcome);
+
+        String stopReason = null;
+        if (outcome[1] >= 0) {
+            stopReason = String.format("REPLICATION %d has been stopped since %s is in DONE state", replicationNumber, this.entityNames[outcome[1]]);
+        }
+        if (outcome[2] == 1) {
+            stopReason = String.format("REPLICATION %d has been stopped since %s [MAX_REPLICATION_LENGTH_HOURS] has been reached", replicationNumber, this.maxReplicationLengthHours);
+        }
+
+        ArrayList<EntityResult> entityResults = new ArrayList<EntityResult>();
+        for (int e = 0; e < this.entityNames.length; e++){
+            long totalStateTime = 0;
+            for (int s = 0; s < numStates; s++){
+                totalStateTime += stateTimes[e * numStates + s];
+            }
+            double quantityOfInterest;
+            if (this.entityTypes[e] == EntityType.INSPECTOR) {
+                double timeInBlockedState = stateTimes[e * numStates + EntityState.BLOCKED.ordinal()];
+                double overallTime = totalStateTime;
+                quantityOfInterest = timeInBlockedState * 100 / overallTime;
+            } else {
+                double productsAssembled = servicesCompleted[e];
+                quantityOfInterest = productsAssembled / Ticks.toHours(totalStateTime);
+            }
+            EntityResult entityResult = new EntityResult(this.entityNames[e], this.entityTypes[e], quantityOfInterest, (long) servicesCompleted[e]);
+            for (EntityState state : EntityState.values()){
+                entityResult.getStateTimes().put(state, Ticks.toSeconds(stateTimes[e * numStates + state.ordinal()]));
+            }
+            entityResults.add(entityResult);
+        }
+        return new ReplicationResult(seed, Ticks.toSeconds(outcome[0] * this.clockIncrementSize), stopReason, entityResults);
+    }
+
+    /**
+     * Next bits of a stream, as java.util.Random.next(bits).
+     *
+     * @param random
+     * @param slot
+     * @param bits
+     * @return
+     */
+    protected static int next(long[] random, int slot, int bits){
+        long state = (random[slot] * MULTIPLIER + ADDEND) & MASK;
+        random[slot] = state;
+        return (int) (state >>> (48 - bits));
+    }
+
+    /**
+     * As java.util.Random.nextDouble().
+     *
+     * @param random
+     * @param slot
+     * @return
+     */
+    protected static double nextDouble(long[] random, int slot){
+        return (((long) next(random, slot, 26) << 27) + next(random, slot, 27)) * DOUBLE_UNIT;
+    }
+
+    /**
+     * As java.util.Random.nextInt(bound).
+     *
+     * @param random
+     * @param slot
+     * @param bound
+     * @return
+     */
+    protected static int nextInt(long[] random, int slot, int bound){
+        int r = next(random, slot, 31);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >> 31);
+        }
+        for (int u = r; u - (r = u % bound) + m < 0; u = next(random, slot, 31));
+        return r;
+    }
+}
@@ -3,38 +3,40 @@ package entities;
 import globals.ComponentName;
 import globals.EntityType;
 
-import java.util.HashMap;
+import java.io.Serializable;
+import java.util.EnumMap;
 
-public class Component {
+public class Component implements Serializable {
+    private static final long serialVersionUID = 1L;
     private ComponentName componentName;
-    private HashMap<EntityType, Double> arrivalTimes;
-    private HashMap<EntityType, Double> interArrivalTimes;
-    private HashMap<EntityType, Double> systemTimes;
+    private EnumMap<EntityType, Long> arrivalTimes;                                     //EnumMaps, an inspector may read its entry while a workbench on another thread adds its own
+    private EnumMap<EntityType, Long> interArrivalTimes;
+    private EnumMap<EntityType, Long> systemTimes;
 
     Component (ComponentName componentName){
         this.componentName = componentName;
-        this.arrivalTimes = new HashMap<EntityType, Double>();
-        this.interArrivalTimes = new HashMap<EntityType, Double>();
-        this.systemTimes = new HashMap<EntityType, Double>();
+        this.arrivalTimes = new EnumMap<EntityType, Long>(EntityType.class);
+        this.interArrivalTimes = new EnumMap<EntityType, Long>(EntityType.class);
+        this.systemTimes = new EnumMap<EntityType, Long>(EntityType.class);
     }
 
 
     public ComponentName getComponentName(){ return this.componentName; }
 
-    public void removeComponentFromSystem(EntityType entityType, Double clock){ this.setEntitySystemTime(entityType, clock); }
+    public void removeComponentFromSystem(EntityType entityType, long clock){ this.setEntitySystemTime(entityType, clock); }
 
-    public void setArrivalTime(EntityType entityType, Double arrivalTime){ this.arrivalTimes.put(entityType, arrivalTime); }
-    public Double getArrivalTime(EntityType entityType){ return this.arrivalTimes.get(entityType); }
+    public void setArrivalTime(EntityType entityType, long arrivalTime){ this.arrivalTimes.put(entityType, arrivalTime); }
+    public long getArrivalTime(EntityType entityType){ return this.arrivalTimes.get(entityType); }
 
-    public void setInterArrivalTime(EntityType entityType, Double interArrivalTime){ this.interArrivalTimes.put(entityType, interArrivalTime); }
-    public Double getInterArrivalTime(EntityType entityType){ return this.interArrivalTimes.get(entityType); }
+    public void setInterArrivalTime(EntityType entityType, long interArrivalTime){ this.interArrivalTimes.put(entityType, interArrivalTime); }
+    public long getInterArrivalTime(EntityType entityType){ return this.interArrivalTimes.get(entityType); }
 
-    public void setEntitySystemTime(EntityType entityType, Double clock){ this.systemTimes.put(entityType, clock - this.getArrivalTime(entityType)); }
-    public Double getEntitySystemTime(EntityType entityType){ return this.systemTimes.get(entityType); }
+    public void setEntitySystemTime(EntityType entityType, long clock){ this.systemTimes.put(entityType, clock - this.getArrivalTime(entityType)); }
+    public long getEntitySystemTime(EntityType entityType){ return this.systemTimes.get(entityType); }
 
-    public Double getSystemTime() {
-        Double systemTime = 0.0;
-        for (Double entitySystemTime : this.systemTimes.values()){
+    public long getSystemTime() {
+        long systemTime = 0;
+        for (long entitySystemTime : this.systemTimes.values()){
             systemTime += entitySystemTime;
         }
         return systemTime;
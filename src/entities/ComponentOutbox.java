@@ -0,0 +1,9 @@
+package entities;
+
+/**
+ * Receives the components an Inspector places on a workbench. By default an Inspector calls WorkBench.addComponent
+ * directly, an outbox lets the placement be delivered later (for example as a timestamped message to another thread).
+ */
+public interface ComponentOutbox {
+    void send(WorkBench workBench, Component component);
+}
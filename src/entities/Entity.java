@@ -3,35 +3,51 @@ package entities;
 import globals.ComponentName;
 import globals.EntityState;
 import globals.EntityType;
+import globals.Ticks;
+import statistics.QuantileSketch;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Random;
 
-public abstract class Entity {
+public abstract class Entity implements Serializable {
+    private static final long serialVersionUID = 1L;                                    //Snapshots in flight must deserialize across recompiles, change only when the serialized form changes
     private String name;                                                                //Name of entity
     private EntityState state;                                                          //Current state, of type EntityState.
     protected EntityType entityType;
-    private HashMap<EntityState, Double> stateTimer;                                    //A running counter of time spent at a given state (unit-less)
-    private Double serviceTimeRemaining;                                                //A running counter to track the time remaining for the current service interval
-    private Integer servicesCompleted;                                                  //A running counter to track the Number of services that have been completed
+    private long[] stateTimer;                                                          //A running counter of time spent at a given state (ticks), indexed by EntityState ordinal
+    private long serviceTimeRemaining;                                                  //A running counter to track the time remaining for the current service interval (ticks)
+    private long servicesCompleted;                                                     //A running counter to track the Number of services that have been completed
     protected HashMap<ComponentName, ArrayList<Component>> componentBuffers;            //Mapping of buffer sizes for each component. Since this is a simulation, this only maintains the number of components that would be in a (theoretical) buffer
-    protected HashMap<ComponentName, Integer> componentBufferSampleSum;                 //Cumulative sum of component buffer sample values
-    protected Integer bufferSampleCount;                                                //Number of buffer samples taken
+    protected ComponentName[] registeredComponents;                                     //Components with a buffer at this entity, in registration order
+    protected long[] componentBufferSampleSum;                                          //Cumulative sum of component buffer sample values, indexed by ComponentName ordinal
+    protected long bufferSampleCount;                                                   //Number of buffer samples taken
     protected HashMap<ComponentName, ArrayList<Component>> completedComponents;
     protected HashMap<ComponentName, Component> lastArrivedComponent;
-    protected Double clock;
+    protected long clock;                                                               //Current time (ticks)
+    private ServiceTimeObserver serviceTimeObserver;                                    //Optional observer of the service times used, null if none
+    protected EnumMap<ComponentName, QuantileSketch> systemTimeSketches;                //Distribution of the time (ticks) components spent at this entity
+    protected EnumMap<ComponentName, QuantileSketch> interArrivalTimeSketches;          //Distribution of the time (ticks) between component arrivals at this entity
+    protected EnumMap<ComponentName, QuantileSketch> endToEndSystemTimeSketches;        //Distribution of the time (ticks) components spent in the whole system, recorded where they leave it
 
     public Entity(String name){
         this.name = name;
         this.state = EntityState.INITIALIZED;
-        this.stateTimer = new HashMap<EntityState, Double>();
+        this.stateTimer = new long[EntityState.values().length];
         this.servicesCompleted = 0;
-        this.clock = 0.0;
-        this.componentBufferSampleSum = new HashMap<ComponentName, Integer>();
+        this.clock = 0;
+        this.registeredComponents = new ComponentName[0];
+        this.componentBufferSampleSum = new long[ComponentName.values().length];
         this.completedComponents = new HashMap<ComponentName, ArrayList<Component>>();
         this.componentBuffers = new HashMap<ComponentName, ArrayList<Component>>();
         this.lastArrivedComponent = new HashMap<ComponentName, Component>();
         this.bufferSampleCount = 0;
+        this.systemTimeSketches = new EnumMap<ComponentName, QuantileSketch>(ComponentName.class);
+        this.interArrivalTimeSketches = new EnumMap<ComponentName, QuantileSketch>(ComponentName.class);
+        this.endToEndSystemTimeSketches = new EnumMap<ComponentName, QuantileSketch>(ComponentName.class);
     }
 
     /**
@@ -66,16 +82,85 @@ public abstract class Entity {
      *
      * @param value
      */
-    protected void setServiceTimeRemaining(Double value){
+    protected void setServiceTimeRemaining(long value){
         this.serviceTimeRemaining = value;
     }
 
+    /**
+     * Starts a service with the given service time and notifies the service time observer, if any.
+     *
+     * @param componentName component under inspection, null for a workbench assembly
+     * @param serviceTime
+     */
+    protected void startService(ComponentName componentName, long serviceTime){
+        this.serviceTimeRemaining = serviceTime;
+        if (this.serviceTimeObserver != null) {
+            this.serviceTimeObserver.serviceStarted(this, componentName, serviceTime);
+        }
+    }
+
+    /**
+     * Replaces the service times not yet used with count new ones drawn from random, along with any other randomness the
+     * entity uses. The rest of a service in progress is replaced by a new service time too, which the memoryless
+     * exponential service times allow, so a copied entity resampled this way continues from the same state along an
+     * independent path from the very next clock update.
+     *
+     * @param count
+     * @param random
+     */
+    public abstract void resampleServiceTimes(int count, Random random);
+
+    /**
+     * Returns the entity to the state it was built in, ready for a new replication with the given seed, keeping the
+     * allocated buffers, maps and service time arrays. Observers attached for the previous replication are detached.
+     *
+     * @param seed replication seed, null for unseeded streams
+     */
+    public void reset(Long seed){
+        this.state = EntityState.INITIALIZED;
+        Arrays.fill(this.stateTimer, 0);
+        this.serviceTimeRemaining = 0;
+        this.servicesCompleted = 0;
+        this.clock = 0;
+        for (ArrayList<Component> componentBuffer : this.componentBuffers.values()){
+            componentBuffer.clear();
+        }
+        Arrays.fill(this.componentBufferSampleSum, 0);
+        this.bufferSampleCount = 0;
+        this.completedComponents.clear();
+        this.lastArrivedComponent.clear();
+        this.serviceTimeObserver = null;
+        this.systemTimeSketches.clear();
+        this.interArrivalTimeSketches.clear();
+        this.endToEndSystemTimeSketches.clear();
+    }
+
+    /**
+     * Forgets the components that have completed service, which are only kept for reporting, so that a copy of the
+     * entity stays small.
+     *
+     */
+    public void discardHistory(){
+        for (ArrayList<Component> components : this.completedComponents.values()){
+            components.clear();
+        }
+    }
+
+    /**
+     * Observes the service times this entity uses.
+     *
+     * @param serviceTimeObserver
+     */
+    public void setServiceTimeObserver(ServiceTimeObserver serviceTimeObserver){
+        this.serviceTimeObserver = serviceTimeObserver;
+    }
+
     /**
      * Get the service time reamining.
      *
      * @return
      */
-    protected Double getServiceTimeRemaining(){
+    protected long getServiceTimeRemaining(){
         return this.serviceTimeRemaining;
     }
 
@@ -84,7 +169,7 @@ public abstract class Entity {
      *
      * @param interval
      */
-    protected void decrementServiceTimeRemaining(Double interval){
+    protected void decrementServiceTimeRemaining(long interval){
         this.serviceTimeRemaining -= interval;
     }
 
@@ -101,7 +186,7 @@ public abstract class Entity {
      *
      * @return
      */
-    public Integer getServicesCompleted(){ return this.servicesCompleted; }
+    public long getServicesCompleted(){ return this.servicesCompleted; }
 
     /**
      * Returns all completed components
@@ -116,34 +201,32 @@ public abstract class Entity {
     public EntityType getEntityType() { return entityType; }
 
     /**
-     * Return current buffer sample sums
+     * Return the current buffer sample sum of a component, 0 if the entity has no buffer for it
+     * @param componentName
      * @return
      */
-    public HashMap<ComponentName, Integer> getComponentBufferSampleSum(){ return this.componentBufferSampleSum; }
+    public long getComponentBufferSampleSum(ComponentName componentName){ return this.componentBufferSampleSum[componentName.ordinal()]; }
 
     /**
-     * Returns the total time spent across all states
+     * Returns the total time spent across all states (ticks)
      *
      * @return
      */
-    public Double getTotalStateTime(){
-        Double totalStateTime = 0.0;
-        for (Double stateTime : this.stateTimer.values()){
+    public long getTotalStateTime(){
+        long totalStateTime = 0;
+        for (long stateTime : this.stateTimer){
             totalStateTime += stateTime;
         }
         return totalStateTime;
     }
 
     /**
-     * Returns the total time spent in a specific state
+     * Returns the total time spent in a specific state (ticks)
      * @param state
      * @return
      */
-    public Double getStateTime(EntityState state){
-        if (this.stateTimer.containsKey(state)){
-            return this.stateTimer.get(state);
-        }
-        return 0.0;
+    public long getStateTime(EntityState state){
+        return this.stateTimer[state.ordinal()];
     }
 
     /**
@@ -152,14 +235,8 @@ public abstract class Entity {
      * @param state
      * @param interval
      */
-    protected void incrementStateTimer(EntityState state, Double interval){
-        if(this.stateTimer.containsKey(state)){
-            Double currentStateTime = this.stateTimer.get(state);
-            currentStateTime += interval;
-            this.stateTimer.put(state, currentStateTime);
-        } else {
-            this.stateTimer.put(state, 0.0);
-        }
+    protected void incrementStateTimer(EntityState state, long interval){
+        this.stateTimer[state.ordinal()] += interval;
     }
 
     /**
@@ -170,23 +247,96 @@ public abstract class Entity {
     public void registerComponent(ComponentName componentName){
         this.componentBuffers.put(componentName, new ArrayList<Component>());
         //this.componentBufferSamples.put(componentName, new ArrayList<Integer>());
-        this.componentBufferSampleSum.put(componentName, 0);
+        if (!Arrays.asList(this.registeredComponents).contains(componentName)) {
+            this.registeredComponents = Arrays.copyOf(this.registeredComponents, this.registeredComponents.length + 1);
+            this.registeredComponents[this.registeredComponents.length - 1] = componentName;
+        }
     }
 
     public String calculateLittlesLaw(){
         StringBuilder result = new StringBuilder();
         for (ComponentName componentName : this.completedComponents.keySet()){
-            Double avgArrivalRate = 1/(this.getAvgInterArrivalTime(componentName)/3600); //arrival rate is 1/avgInterArrivalTime convert to minutes
-            Double avgSystemTime = this.getAvgSystemTime(componentName)/3600; //convert to minutes
-            Double averageNumberInSystem = this.getAvgNumberInSystem(componentName);
+            double[] littlesLawStatistics = this.getLittlesLawStatistics(componentName);
+            Double averageNumberInSystem = littlesLawStatistics[0];
+            Double avgArrivalRate = littlesLawStatistics[1];
+            Double avgSystemTime = littlesLawStatistics[2];
             result.append(String.format("\n\t [%s] avgNumInSystem: %f,  avgArrivalRate: %f, avgSystemTime: %f", componentName, averageNumberInSystem, avgArrivalRate, avgSystemTime));
             result.append(String.format("\n\t Little's Law: %f=%f", averageNumberInSystem, avgArrivalRate*avgSystemTime));
         }
         return result.toString();
     }
 
-    private Double getAvgInterArrivalTime(ComponentName componentName){
-        Double sumInterArrivalTimes = 0.0;
+    /**
+     * Records the system and inter-arrival times of a component retired by this entity in the quantile sketches.
+     *
+     * @param component
+     */
+    protected void recordRetiredComponent(Component component){
+        ComponentName componentName = component.getComponentName();
+        sketch(this.systemTimeSketches, componentName).record(component.getEntitySystemTime(this.entityType));
+        sketch(this.interArrivalTimeSketches, componentName).record(component.getInterArrivalTime(this.entityType));
+    }
+
+    /**
+     * Returns the sketch for a component type, creating it on first use.
+     *
+     * @param sketches
+     * @param componentName
+     * @return
+     */
+    protected static QuantileSketch sketch(EnumMap<ComponentName, QuantileSketch> sketches, ComponentName componentName){
+        QuantileSketch sketch = sketches.get(componentName);
+        if (sketch == null) {
+            sketch = new QuantileSketch();
+            sketches.put(componentName, sketch);
+        }
+        return sketch;
+    }
+
+    /**
+     * Returns share number index of a duration split evenly into count shares, the remainder going to the first shares
+     * so that the shares add up to the duration.
+     *
+     * @param duration
+     * @param index
+     * @param count
+     * @return
+     */
+    protected static long evenShare(long duration, int index, int count){
+        return duration / count + (index < duration % count ? 1 : 0);
+    }
+
+    public EnumMap<ComponentName, QuantileSketch> getSystemTimeSketches(){ return this.systemTimeSketches; }
+
+    public EnumMap<ComponentName, QuantileSketch> getInterArrivalTimeSketches(){ return this.interArrivalTimeSketches; }
+
+    public EnumMap<ComponentName, QuantileSketch> getEndToEndSystemTimeSketches(){ return this.endToEndSystemTimeSketches; }
+
+    /**
+     * Formats the P50, P95 and P99 of a sketch of tick values in minutes.
+     *
+     * @param sketch
+     * @return
+     */
+    public static String formatQuantiles(QuantileSketch sketch){
+        return String.format("P50: %.2f  P95: %.2f  P99: %.2f", Ticks.toMinutes(sketch.getQuantile(0.50)), Ticks.toMinutes(sketch.getQuantile(0.95)), Ticks.toMinutes(sketch.getQuantile(0.99)));
+    }
+
+    /**
+     * Returns the Little's law statistics for a completed component type as {avgNumInSystem, avgArrivalRate, avgSystemTime}.
+     *
+     * @param componentName
+     * @return
+     */
+    public double[] getLittlesLawStatistics(ComponentName componentName){
+        double avgArrivalRate = 1/Ticks.toHours(this.getAvgInterArrivalTime(componentName)); //arrival rate is 1/avgInterArrivalTime convert to hours
+        double avgSystemTime = Ticks.toHours(this.getAvgSystemTime(componentName)); //convert to hours
+        double averageNumberInSystem = this.getAvgNumberInSystem(componentName);
+        return new double[]{averageNumberInSystem, avgArrivalRate, avgSystemTime};
+    }
+
+    private long getAvgInterArrivalTime(ComponentName componentName){
+        long sumInterArrivalTimes = 0;
         ArrayList<Component> completedComponents = this.completedComponents.get(componentName);
         for (Component component : completedComponents){
             sumInterArrivalTimes += component.getInterArrivalTime(this.entityType);
@@ -194,8 +344,8 @@ public abstract class Entity {
         return (sumInterArrivalTimes/completedComponents.size());
     }
 
-    private Double getAvgSystemTime(ComponentName componentName){
-        Double sumSystemTimes = 0.0;
+    private long getAvgSystemTime(ComponentName componentName){
+        long sumSystemTimes = 0;
         ArrayList<Component> completedComponents = this.completedComponents.get(componentName);
         for (Component component : completedComponents){
             sumSystemTimes += component.getEntitySystemTime(this.entityType);
@@ -204,20 +354,18 @@ public abstract class Entity {
     }
 
     private Double getAvgNumberInSystem(ComponentName componentName){
-        return ((double)this.componentBufferSampleSum.get(componentName) / this.bufferSampleCount);
+        return ((double)this.componentBufferSampleSum[componentName.ordinal()] / this.bufferSampleCount);
     }
 
     protected void sampleComponentBuffers(){
         //sample componentBuffer and add current system state
-        for (ComponentName cn : this.componentBufferSampleSum.keySet()){
-            Integer componentBufferSampleSum = this.componentBufferSampleSum.get(cn);
-            componentBufferSampleSum += this.componentBuffers.get(cn).size();
-            this.componentBufferSampleSum.put(cn, componentBufferSampleSum);
+        for (ComponentName cn : this.registeredComponents){
+            this.componentBufferSampleSum[cn.ordinal()] += this.componentBuffers.get(cn).size();
         }
         this.bufferSampleCount ++;
     }
 
-    public abstract void clockUpdate(Double interval);
+    public abstract void clockUpdate(long interval);
     public abstract String produceReport();
     public abstract Double getQuantityOfInterest();
 }
@@ -3,40 +3,131 @@ package entities;
 import globals.ComponentName;
 import globals.EntityState;
 import globals.EntityType;
+import globals.Ticks;
+import statistics.NumberGenerator;
 
 import java.util.*;
 
 public class Inspector extends Entity{
-    private final int MAX_BUFFER_SIZE = 999;                                            //Maximum possible buffer size for a workbench, used when finding the workbench with the minimum current buffer value, this is ridiculously large compared to whats expected
+    private static final long serialVersionUID = 1L;
+    private final int MAX_BUFFER_SIZE = Integer.MAX_VALUE;                              //Larger than any workbench buffer size, used when finding the workbench with the minimum current buffer value (pooled stations can hold thousands of units)
     private final int SEED = 9;                                                         //Seed value for random number generator, useful for testing, by default not used.
-    private HashMap<ComponentName, ArrayList<WorkBench>> componentToWorkbenchMapping;   //A Mapping of components to workbenches ex. {C1: [W1, W2, W3], C2: [W2] ... }
-    private HashMap<ComponentName, Queue<Double>> componentServiceTimes;                //A mapping of service time queues to components ex. {C1: [60, 120, 240], C2: [30, 45, ... }
+    private EnumMap<ComponentName, ArrayList<WorkBench>> componentToWorkbenchMapping;   //A Mapping of components to workbenches ex. {C1: [W1, W2, W3], C2: [W2] ... }, EnumMap so the random component choice is reproducible for a seed
+    private HashMap<ComponentName, ServiceTimes> componentServiceTimes;                 //A mapping of service times (ticks) to components ex. {C1: [60, 120, 240], C2: [30, 45, ... } seconds
     private HashMap<WorkBench, Integer> workbenchPriorities;                            //A mapping of priorities to workbenches ex:. {W1: 1, W2: 2, W3: 3}
+    private HashMap<ComponentName, Double> componentServiceRates;                       //Exponential service rate (per minute) of each component, used by analytic models
     private ComponentName currentComponentNameUnderInspection;                          //Current component under inspection
     private Random randomNumberGenerator;                                               //Random number generator
+    private ComponentOutbox componentOutbox;                                            //Optional outbox for placed components, null places them on the workbench directly
+    private HashMap<WorkBench, long[]> blockedTimeByFullBuffer;                         //Blocked time (ticks) attributed to each full workbench buffer, indexed by ComponentName ordinal
+    private long blockedSince;                                                          //Clock time the current blocked episode started
+    private ArrayList<WorkBench> blockedOn;                                             //Workbenches whose full buffers the current blocked episode is split between
+    private int choiceStream;                                                           //Stream index of the component choice when reset with a replication seed, -1 if unseeded
 
 
     public Inspector (String name) {
         super(name);
         this.entityType = EntityType.INSPECTOR;
-        this.componentToWorkbenchMapping = new HashMap<ComponentName, ArrayList<WorkBench>>();
-        this.componentServiceTimes = new HashMap<ComponentName, Queue<Double>>();
+        this.componentToWorkbenchMapping = new EnumMap<ComponentName, ArrayList<WorkBench>>(ComponentName.class);
+        this.componentServiceTimes = new HashMap<ComponentName, ServiceTimes>();
         this.workbenchPriorities = new HashMap<WorkBench, Integer>();
+        this.componentServiceRates = new HashMap<ComponentName, Double>();
+        this.blockedTimeByFullBuffer = new HashMap<WorkBench, long[]>();
+        this.blockedOn = new ArrayList<WorkBench>();
         this.randomNumberGenerator = new Random();
+        this.choiceStream = -1;
     }
 
     /**
-     * Registration method to initialize an Inspector. Maps a list of service times for a specific component.
+     * Seeds the random number generator used to choose which component to inspect next, so that replications can be reproduced.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed){
+        this.randomNumberGenerator = new Random(seed);
+    }
+
+    /**
+     * Registration method to draw the component choice from a stream of the replication seed when the inspector is reset.
+     *
+     * @param stream
+     */
+    public void registerChoiceStream(int stream){
+        this.choiceStream = stream;
+    }
+
+    @Override
+    public void resampleServiceTimes(int count, Random random){
+        for (ComponentName componentName : ComponentName.values()){
+            if (this.componentServiceRates.containsKey(componentName)) {
+                this.componentServiceTimes.get(componentName).generate(count, this.componentServiceRates.get(componentName), random);
+            }
+        }
+        if (this.getState() == EntityState.ACTIVE && this.getServiceTimeRemaining() > 0) {
+            this.setServiceTimeRemaining(this.componentServiceTimes.get(this.currentComponentNameUnderInspection).next());
+        }
+        this.setSeed(random.nextLong());
+    }
+
+    @Override
+    public void reset(Long seed){
+        super.reset(seed);
+        for (ComponentName componentName : ComponentName.values()){
+            if (this.componentServiceTimes.containsKey(componentName)) {
+                this.componentServiceTimes.get(componentName).reset(seed, this.componentServiceRates.get(componentName));
+            }
+        }
+        if (seed != null && this.choiceStream >= 0) {
+            this.setSeed(NumberGenerator.streamSeed(seed, this.choiceStream));
+        } else {
+            this.randomNumberGenerator = new Random();
+        }
+        this.currentComponentNameUnderInspection = null;
+        this.componentOutbox = null;
+        this.blockedTimeByFullBuffer.clear();
+        this.blockedSince = 0;
+        this.blockedOn.clear();
+    }
+
+    /**
+     * Routes placed components through an outbox instead of calling WorkBench.addComponent directly.
+     *
+     * @param componentOutbox
+     */
+    public void setComponentOutbox(ComponentOutbox componentOutbox){
+        this.componentOutbox = componentOutbox;
+    }
+
+    /**
+     * Registration method to initialize an Inspector. Maps a list of service times (seconds) for a specific component.
      *
      * @param componentName
      * @param serviceTimes
      */
     public void registerComponentServiceTimes(ComponentName componentName, ArrayList<Double> serviceTimes){
-        Queue<Double> serviceTimeQueue = new LinkedList<Double>();
-        for (Double serviceTime : serviceTimes){
-            serviceTimeQueue.add(serviceTime);
-        }
-        this.componentServiceTimes.put(componentName, serviceTimeQueue);
+        this.componentServiceTimes.put(componentName, new ServiceTimes(serviceTimes));
+    }
+
+    /**
+     * Registration method to draw numServiceTimes service times for a component from a stream of the replication seed
+     * whenever the inspector is reset. The service rate must also be registered.
+     *
+     * @param componentName
+     * @param stream
+     * @param numServiceTimes
+     */
+    public void registerComponentServiceTimeStream(ComponentName componentName, int stream, int numServiceTimes){
+        this.componentServiceTimes.put(componentName, new ServiceTimes(numServiceTimes, stream));
+    }
+
+    /**
+     * Registration method to record the exponential service rate (per minute) the service times of a component were drawn from.
+     *
+     * @param componentName
+     * @param serviceRate
+     */
+    public void registerComponentServiceRate(ComponentName componentName, Double serviceRate){
+        this.componentServiceRates.put(componentName, serviceRate);
     }
 
     /**
@@ -78,8 +169,8 @@ public class Inspector extends Entity{
      * @param interval
      */
     @Override
-    public void clockUpdate(Double interval){
-        Double serviceTimeRemaining = this.getServiceTimeRemaining();
+    public void clockUpdate(long interval){
+        long serviceTimeRemaining = this.getServiceTimeRemaining();
         EntityState currentState = this.getState();
         this.incrementStateTimer(currentState, interval);
         this.clock += interval;
@@ -156,7 +247,7 @@ public class Inspector extends Entity{
     private void setComponentServiceTime(){
         if (!this.componentServiceTimes.get(this.currentComponentNameUnderInspection).isEmpty()) {
             this.setState(EntityState.ACTIVE);
-            this.setServiceTimeRemaining(this.componentServiceTimes.get(this.currentComponentNameUnderInspection).remove());
+            this.startService(this.currentComponentNameUnderInspection, this.componentServiceTimes.get(this.currentComponentNameUnderInspection).next());
         } else {
             this.setState(EntityState.DONE);
         }
@@ -172,9 +263,17 @@ public class Inspector extends Entity{
     private void attemptToPutComponentOnWorkbench(){
         WorkBench workbench = getNextWorkBench();
         if (workbench != null) {
+            if (this.getState() == EntityState.BLOCKED) {
+                this.recordBlockedEpisode(this.clock - this.blockedSince);
+            }
             Component component = this.componentBuffers.get(this.currentComponentNameUnderInspection).remove(0);
             component.removeComponentFromSystem(this.entityType, this.clock);
-            workbench.addComponent(component);
+            this.recordRetiredComponent(component);
+            if (this.componentOutbox != null) {
+                this.componentOutbox.send(workbench, component);
+            } else {
+                workbench.addComponent(component);
+            }
 
             //Add this component to the Inspector's completed components collection
             ComponentName componentName = component.getComponentName();
@@ -188,10 +287,65 @@ public class Inspector extends Entity{
             this.incrementServicesCompleted();
             this.getNextComponentToInspect();
         } else {
+            if (this.getState() != EntityState.BLOCKED) {
+                this.blockedSince = this.clock;
+                this.findFullWorkbenches();
+            }
             this.setState(EntityState.BLOCKED);
         }
     }
 
+    /**
+     * Finds the workbenches a blocked inspector is waiting on: every one whose buffer for the component under inspection
+     * is full, since the inspector stays blocked until any of them takes a unit.
+     *
+     */
+    private void findFullWorkbenches(){
+        this.blockedOn.clear();
+        for (WorkBench workbench : this.componentToWorkbenchMapping.get(this.currentComponentNameUnderInspection)){
+            if (!workbench.bufferAvailable(this.currentComponentNameUnderInspection)) {
+                this.blockedOn.add(workbench);
+            }
+        }
+    }
+
+    /**
+     * Splits a blocked episode evenly between the full buffers the inspector was waiting on, so that no one workbench
+     * (such as the fastest, which is full only as long as the others) takes the blame for all of them, and the
+     * attributions add up to the inspector's blocked time.
+     *
+     * @param duration
+     */
+    private void recordBlockedEpisode(long duration){
+        for (int w = 0; w < this.blockedOn.size(); w++){
+            WorkBench workbench = this.blockedOn.get(w);
+            if (!this.blockedTimeByFullBuffer.containsKey(workbench)){
+                this.blockedTimeByFullBuffer.put(workbench, new long[ComponentName.values().length]);
+            }
+            this.blockedTimeByFullBuffer.get(workbench)[this.currentComponentNameUnderInspection.ordinal()] += evenShare(duration, w, this.blockedOn.size());
+        }
+        this.blockedOn.clear();
+    }
+
+    /**
+     * Returns the blocked time (ticks) caused by a full workbench buffer, including a blocked episode still in progress.
+     *
+     * @param workbench
+     * @param componentName
+     * @return
+     */
+    public long getBlockedTime(WorkBench workbench, ComponentName componentName){
+        long blockedTime = 0;
+        if (this.blockedTimeByFullBuffer.containsKey(workbench)) {
+            blockedTime += this.blockedTimeByFullBuffer.get(workbench)[componentName.ordinal()];
+        }
+        int w = this.blockedOn.indexOf(workbench);
+        if (this.getState() == EntityState.BLOCKED && componentName == this.currentComponentNameUnderInspection && w >= 0) {
+            blockedTime += evenShare(this.clock - this.blockedSince, w, this.blockedOn.size());
+        }
+        return blockedTime;
+    }
+
     /**
      * Find's appropriate workbench to place component on. Looks for workbench with least buffer size (used buffer space).
      * In the event of a tie, leverages workbenchPriorities.
@@ -220,6 +374,55 @@ public class Inspector extends Entity{
         return candidateWorkbench;
     }
 
+    /**
+     * Returns the components this inspector can inspect, in the order used when randomly selecting the next component.
+     *
+     * @return
+     */
+    public ArrayList<ComponentName> getInspectableComponents(){ return new ArrayList<ComponentName>(this.componentToWorkbenchMapping.keySet()); }
+
+    public ArrayList<WorkBench> getWorkbenchesForComponent(ComponentName componentName){ return this.componentToWorkbenchMapping.get(componentName); }
+
+    public Integer getWorkbenchPriority(WorkBench workBench){ return this.workbenchPriorities.get(workBench); }
+
+    public Double getComponentServiceRate(ComponentName componentName){ return this.componentServiceRates.get(componentName); }
+
+    public ServiceTimes getComponentServiceTimes(ComponentName componentName){ return this.componentServiceTimes.get(componentName); }
+
+    public int getChoiceStream(){ return this.choiceStream; }
+
+    /**
+     * Returns every workbench this inspector reads from (or places components on) when placing a component.
+     *
+     * @return
+     */
+    public Set<WorkBench> getRegisteredWorkbenches(){ return this.workbenchPriorities.keySet(); }
+
+    /**
+     * Returns true if the next clock update will try to place a component on a workbench (and so read workbench buffers).
+     *
+     * @return
+     */
+    public boolean willAttemptPlacement(){
+        EntityState state = this.getState();
+        return state == EntityState.BLOCKED || (state == EntityState.ACTIVE && this.getServiceTimeRemaining() <= 0);
+    }
+
+    /**
+     * Returns the number of upcoming clock updates that will only count down the current inspection, i.e. the number of
+     * updates before the next placement attempt.
+     *
+     * @param interval
+     * @return
+     */
+    public long getUpdatesUntilPlacementAttempt(long interval){
+        long serviceTimeRemaining = this.getServiceTimeRemaining();
+        if (this.getState() != EntityState.ACTIVE || serviceTimeRemaining <= 0) {
+            return 0;
+        }
+        return (serviceTimeRemaining + interval - 1) / interval;
+    }
+
     private double getIdleProportion(){
         double timeInBlockedState = this.getStateTime(EntityState.BLOCKED);
         double overallTime = this.getTotalStateTime();
@@ -235,7 +438,15 @@ public class Inspector extends Entity{
     @Override
     public String produceReport() {
         StringBuilder result = new StringBuilder();
-        result.append(String.format("[%s]  Idle %%: %f  TotalInspections: %d TotalBlockedTime(mins): %.2f  TotalActiveTime(mins): %.2f", this.getName(), this.getIdleProportion(), this.getServicesCompleted(), (this.getStateTime(EntityState.BLOCKED)/60), (this.getStateTime(EntityState.ACTIVE)/60)));
+        result.append(String.format("[%s]  Idle %%: %f  TotalInspections: %d TotalBlockedTime(mins): %.2f  TotalActiveTime(mins): %.2f", this.getName(), this.getIdleProportion(), this.getServicesCompleted(), Ticks.toMinutes(this.getStateTime(EntityState.BLOCKED)), Ticks.toMinutes(this.getStateTime(EntityState.ACTIVE))));
+        for (ComponentName componentName : this.componentToWorkbenchMapping.keySet()){
+            for (WorkBench workbench : this.componentToWorkbenchMapping.get(componentName)){
+                long blockedTime = this.getBlockedTime(workbench, componentName);
+                if (blockedTime > 0) {
+                    result.append(String.format("\n\t BlockedBy [%s %s buffer full](mins): %.2f", workbench.getName(), componentName, Ticks.toMinutes(blockedTime)));
+                }
+            }
+        }
         result.append(this.calculateLittlesLaw());
         return result.toString();
     }
@@ -0,0 +1,16 @@
+package entities;
+
+import globals.ComponentName;
+
+/**
+ * Notified each time an entity starts a service with the next of its pre generated service times, for example to
+ * accumulate likelihood ratio scores of the service time distributions.
+ */
+public interface ServiceTimeObserver {
+    /**
+     * @param entity entity starting the service
+     * @param componentName component under inspection, null for a workbench assembly
+     * @param serviceTime service time (ticks)
+     */
+    void serviceStarted(Entity entity, ComponentName componentName, long serviceTime);
+}
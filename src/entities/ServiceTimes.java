@@ -0,0 +1,126 @@
+package entities;
+
+import globals.Ticks;
+import statistics.NumberGenerator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Service times (ticks) consumed in order. Service times drawn from a stream are generated as they are used, from a
+ * random number generator that is reseeded in place when the entity is reset, so starting a replication costs the same
+ * however many service times it may use. Fixed or resampled service times are held in an array.
+ */
+public class ServiceTimes implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private long[] values;                                                              //Fixed or resampled service times (ticks), null while drawing from the stream
+    private int size;                                                                   //Number of service times available
+    private int position;                                                               //Index of the next service time
+    private int stream;                                                                 //Stream index the service times are drawn from when reset with a replication seed, -1 if fixed
+    private Random random;                                                              //Stream the service times are drawn from, null if they are held in values
+    private Double rate;                                                                //Exponential service rate (per minute) of the stream
+    private int numServiceTimes;                                                        //Service times drawn from the stream per replication
+
+    /**
+     * Service times drawn from a stream of the replication seed, at most numServiceTimes per replication.
+     *
+     * @param numServiceTimes
+     * @param stream
+     */
+    public ServiceTimes(int numServiceTimes, int stream){
+        this.size = numServiceTimes;
+        this.position = 0;
+        this.stream = stream;
+        this.numServiceTimes = numServiceTimes;
+    }
+
+    /**
+     * Fixed service times (seconds), kept as they are when the entity is reset.
+     *
+     * @param serviceTimes
+     */
+    public ServiceTimes(ArrayList<Double> serviceTimes){
+        this(serviceTimes.size(), -1);
+        this.values = new long[serviceTimes.size()];
+        for (int i = 0; i < serviceTimes.size(); i++){
+            this.values[i] = Ticks.fromSeconds(serviceTimes.get(i));
+        }
+    }
+
+    /**
+     * Replaces the service times not yet used with count exponential service times drawn from random now.
+     *
+     * @param count
+     * @param rate exponential service rate (per minute)
+     * @param random
+     */
+    public void generate(int count, Double rate, Random random){
+        if (this.values == null || this.values.length < count) {
+            this.values = new long[count];
+        }
+        for (int i = 0; i < count; i++){
+            this.values[i] = draw(rate, random);
+        }
+        this.random = null;
+        this.size = count;
+        this.position = 0;
+    }
+
+    /**
+     * Restarts the service times for a new replication, reseeding the stream from the replication seed when there is one.
+     *
+     * @param seed replication seed, null for an unseeded stream
+     * @param rate exponential service rate (per minute)
+     */
+    public void reset(Long seed, Double rate){
+        this.position = 0;
+        if (this.stream < 0) {
+            return;
+        }
+        if (seed == null) {
+            this.random = new Random();
+        } else if (this.random == null) {
+            this.random = new Random(NumberGenerator.streamSeed(seed, this.stream));
+        } else {
+            this.random.setSeed(NumberGenerator.streamSeed(seed, this.stream));
+        }
+        this.rate = rate;
+        this.size = this.numServiceTimes;
+    }
+
+    public boolean isEmpty(){ return this.position >= this.size; }
+
+    public int getStream(){ return this.stream; }
+
+    public int getNumServiceTimes(){ return this.numServiceTimes; }
+
+    /**
+     * Returns the next service time (ticks).
+     *
+     * @return
+     * @throws NoSuchElementException if every service time has been used
+     */
+    public long next(){
+        if (this.isEmpty()) {
+            throw new NoSuchElementException("No service times remaining");
+        }
+        if (this.random == null) {
+            return this.values[this.position ++];
+        }
+        this.position ++;
+        return draw(this.rate, this.random);
+    }
+
+    /**
+     * Draws a service time (ticks) exactly as NumberGenerator.generateExpNumberList does (seconds), before conversion.
+     *
+     * @param rate
+     * @param random
+     * @return
+     */
+    private static long draw(Double rate, Random random){
+        return Ticks.fromSeconds(NumberGenerator.generateExpNumber(rate, random) * 60);
+    }
+}
@@ -4,16 +4,26 @@ import globals.ComponentName;
 import globals.EntityState;
 import globals.EntityType;
 import globals.Product;
+import globals.Ticks;
 
 import java.util.ArrayList;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.Random;
 
 public class WorkBench extends Entity {
+    private static final long serialVersionUID = 1L;
     private Product product;                                                         //Type of product output by this WorkBench
     private int maxBufferSize;                                                       //Maximum buffer size
-    private Queue<Double> serviceTimes;                                              //A queue of service times
+    private ServiceTimes serviceTimes;                                               //Service times (ticks), used in order
+    private Double serviceRate;                                                      //Exponential service rate (per minute) the service times were drawn from
+    private long[] starvedTime;                                                      //Time (ticks) BLOCKED with a short buffer, indexed by ComponentName ordinal, split evenly while several are short
+    private boolean[] starving;                                                      //Whether each buffer has been short since the WorkBench became BLOCKED, indexed by ComponentName ordinal
+    private int componentsStarving;                                                  //Number of buffers starving
+    private long starvingSince;                                                      //Clock time the starving buffers last changed, up to which starvedTime has been charged
+    protected ComponentName[] requiredComponents;                                    //Components required to assemble the product, in ComponentName order
+    protected int[] requiredUnits;                                                   //Units of each component used per product (bill of materials), indexed by ComponentName ordinal, 0 if not required
+    private int componentsShort;                                                     //Number of required components with fewer units buffered than needed, a product can be assembled when 0
 
 
     public WorkBench(String name, Product product, int maxBufferSize){
@@ -21,19 +31,127 @@ public class WorkBench extends Entity {
         this.entityType = EntityType.WORKBENCH;
         this.product = product;
         this.maxBufferSize = maxBufferSize;
+        this.starvedTime = new long[ComponentName.values().length];
+        this.starving = new boolean[ComponentName.values().length];
+        this.requiredComponents = new ComponentName[0];
+        this.requiredUnits = new int[ComponentName.values().length];
+        this.componentsShort = 0;
     }
 
     /**
-     * Registration method to initialize a Workbench. Adds a list of service times for the workbench.
+     * Registers a component used once per assembled product.
+     *
+     * @param componentName
+     */
+    @Override
+    public void registerComponent(ComponentName componentName){
+        this.registerComponent(componentName, 1);
+    }
+
+    /**
+     * Registers a component with the number of units used per assembled product. The component's buffer holds
+     * maxBufferSize products' worth of units.
+     *
+     * @param componentName
+     * @param units
+     */
+    public void registerComponent(ComponentName componentName, int units){
+        if (units < 1) {
+            throw new IllegalArgumentException(String.format("%s must use at least one unit of %s", this.getName(), componentName));
+        }
+        if (this.requiredUnits[componentName.ordinal()] == 0) {
+            super.registerComponent(componentName);
+            this.requiredComponents = Arrays.copyOf(this.requiredComponents, this.requiredComponents.length + 1);
+            this.requiredComponents[this.requiredComponents.length - 1] = componentName;
+            Arrays.sort(this.requiredComponents);
+            this.componentsShort ++;
+        }
+        this.requiredUnits[componentName.ordinal()] = units;
+    }
+
+    /**
+     * Registration method to initialize a Workbench. Adds a list of service times (seconds) for the workbench.
      *
      * @param serviceTimes
      */
     public void setServiceTimes(ArrayList<Double> serviceTimes){
-        Queue<Double> serviceTimeQueue = new LinkedList<Double>();
-        for (Double serviceTime : serviceTimes){
-            serviceTimeQueue.add(serviceTime);
+        this.serviceTimes = new ServiceTimes(serviceTimes);
+    }
+
+    /**
+     * Registration method to draw numServiceTimes service times from a stream of the replication seed whenever the
+     * workbench is reset. The service rate must also be set.
+     *
+     * @param stream
+     * @param numServiceTimes
+     */
+    public void setServiceTimeStream(int stream, int numServiceTimes){
+        this.serviceTimes = new ServiceTimes(numServiceTimes, stream);
+    }
+
+    /**
+     * Registration method to record the exponential service rate (per minute), used by analytic models.
+     *
+     * @param serviceRate
+     */
+    public void setServiceRate(Double serviceRate){
+        this.serviceRate = serviceRate;
+    }
+
+    public Double getServiceRate(){ return this.serviceRate; }
+
+    public ServiceTimes getServiceTimes(){ return this.serviceTimes; }
+
+    public int getMaxBufferSize(){ return this.maxBufferSize; }
+
+    @Override
+    public void resampleServiceTimes(int count, Random random){
+        this.serviceTimes.generate(count, this.serviceRate, random);
+        if (this.getState() == EntityState.ACTIVE && this.getServiceTimeRemaining() > 0) {
+            this.setServiceTimeRemaining(this.serviceTimes.next());
         }
-        this.serviceTimes = serviceTimeQueue;
+    }
+
+    @Override
+    public void reset(Long seed){
+        super.reset(seed);
+        if (this.serviceTimes != null) {
+            this.serviceTimes.reset(seed, this.serviceRate);
+        }
+        Arrays.fill(this.starvedTime, 0);
+        Arrays.fill(this.starving, false);
+        this.componentsStarving = 0;
+        this.starvingSince = 0;
+        this.componentsShort = this.requiredComponents.length;
+    }
+
+    /**
+     * Returns the components required to assemble this workbench's product, in ComponentName order.
+     *
+     * @return
+     */
+    public ArrayList<ComponentName> getRequiredComponents(){
+        return new ArrayList<ComponentName>(Arrays.asList(this.requiredComponents));
+    }
+
+    /**
+     * Returns the units of a component used per assembled product, 0 if the component is not used.
+     *
+     * @param componentName
+     * @return
+     */
+    public int getRequiredUnits(ComponentName componentName){
+        return this.requiredUnits[componentName.ordinal()];
+    }
+
+    /**
+     * Returns the number of units of a component the buffer can hold.
+     *
+     * @param componentName
+     * @return
+     */
+    public int getBufferCapacity(ComponentName componentName){
+        return this.maxBufferSize * this.requiredUnits[componentName.ordinal()];
     }
 
     /**
@@ -58,6 +176,28 @@ public class WorkBench extends Entity {
         //Get the corresponding componentBuffer for this component
         ArrayList<Component> componentBuffer = this.componentBuffers.get(componentName);
 
+        this.recordArrival(component);
+
+        //Place component in componentBuffer
+        componentBuffer.add(component);
+        int componentIndex = componentName.ordinal();
+        if (componentBuffer.size() == this.requiredUnits[componentIndex]) {
+            this.componentsShort --;
+        }
+
+        //A starved buffer is no longer holding up assembly once it has enough units
+        if (this.starving[componentIndex] && componentBuffer.size() >= this.requiredUnits[componentIndex]) {
+            this.stopStarving(componentName);
+        }
+    }
+
+    /**
+     * Stamps an arriving component with its arrival and interarrival times.
+     *
+     * @param component
+     */
+    protected void recordArrival(Component component){
+        ComponentName componentName = component.getComponentName();
         if (!this.lastArrivedComponent.containsKey(componentName)){
             component.setInterArrivalTime(this.entityType, this.clock);
         } else {
@@ -67,9 +207,6 @@ public class WorkBench extends Entity {
 
         component.setArrivalTime(this.entityType, this.clock);
 
-        //Place component in componentBuffer
-        componentBuffer.add(component);
-
         //Add component to lastArrivedComponent, this is used to measure interarrival times
         this.lastArrivedComponent.put(componentName, component);
     }
@@ -81,7 +218,7 @@ public class WorkBench extends Entity {
      * @return
      */
     public boolean bufferAvailable(ComponentName componentName){
-        if (this.componentBuffers.containsKey(componentName) && (this.componentBuffers.get(componentName).size() < maxBufferSize)){
+        if (this.requiredUnits[componentName.ordinal()] > 0 && (this.componentBuffers.get(componentName).size() < this.getBufferCapacity(componentName))){
             return true;
         } else {
             return false;
@@ -100,8 +237,8 @@ public class WorkBench extends Entity {
      * @param interval
      */
     @Override
-    public void clockUpdate(Double interval){
-        Double serviceTimeRemaining = this.getServiceTimeRemaining();
+    public void clockUpdate(long interval){
+        long serviceTimeRemaining = this.getServiceTimeRemaining();
         EntityState currentState = this.getState();
         this.incrementStateTimer(currentState, interval);
         this.clock += interval;
@@ -127,55 +264,138 @@ public class WorkBench extends Entity {
     }
 
     /**
-     * Checks the component buffers to ensure at least one of each component is available, necessary to assemble a product.
+     * Checks that every buffer holds the units of its component needed to assemble a product, which is a constant time
+     * check of the count of short buffers maintained as components are added and used.
      * If the necessary components are available, sets the state of the WorkBench to ACTIVE and selects the next service time
      * from the pre generated list of service times.
      */
     private void attemptToAssembleProduct(){
-        boolean componentsAvailableToAssembleProduct = true;
+        if (this.componentsShort == 0){
+            this.setState(EntityState.ACTIVE);
+            this.startService(null, this.serviceTimes.next());
+        } else {
+            if (this.getState() != EntityState.BLOCKED) {
+                this.startStarvation();
+            }
+            this.setState(EntityState.BLOCKED);
+        }
+    }
 
-        //Ensure all buffers have at least one component in them
-        for (ArrayList<Component> componentBuffer : this.componentBuffers.values()){
-            if (componentBuffer.size() == 0){
-                componentsAvailableToAssembleProduct = false;
-                break;
+    /**
+     * Starts attributing starved time to each component type whose buffer is short of units when the WorkBench becomes
+     * BLOCKED.
+     *
+     */
+    private void startStarvation(){
+        for (ComponentName componentName : this.requiredComponents){
+            if (this.componentBuffers.get(componentName).size() < this.requiredUnits[componentName.ordinal()]) {
+                this.startStarving(componentName);
             }
         }
+    }
 
-        if (componentsAvailableToAssembleProduct){
-            this.setState(EntityState.ACTIVE);
-            this.setServiceTimeRemaining(this.serviceTimes.remove());
-        } else {
-            this.setState(EntityState.BLOCKED);
+    /**
+     * Starts attributing starved time to a component type. While several component types are starving, each clock
+     * interval is split evenly between them, so the starved times add up to the time the WorkBench was starved.
+     *
+     * @param componentName
+     */
+    protected void startStarving(ComponentName componentName){
+        if (!this.starving[componentName.ordinal()]) {
+            this.chargeStarving();
+            this.starving[componentName.ordinal()] = true;
+            this.componentsStarving ++;
+        }
+    }
+
+    /**
+     * Stops attributing starved time to a component type once it is no longer holding up assembly.
+     *
+     * @param componentName
+     */
+    protected void stopStarving(ComponentName componentName){
+        this.chargeStarving();
+        this.starving[componentName.ordinal()] = false;
+        this.componentsStarving --;
+    }
+
+    protected boolean isStarving(ComponentName componentName){ return this.starving[componentName.ordinal()]; }
+
+    /**
+     * Charges the time since the starving component types last changed to each of them in equal shares.
+     *
+     */
+    private void chargeStarving(){
+        int index = 0;
+        for (ComponentName componentName : this.requiredComponents){
+            if (this.starving[componentName.ordinal()]) {
+                this.starvedTime[componentName.ordinal()] += evenShare(this.clock - this.starvingSince, index ++, this.componentsStarving);
+            }
+        }
+        this.starvingSince = this.clock;
+    }
+
+    /**
+     * Returns the time (ticks) this WorkBench was BLOCKED waiting for a component type, including a wait still in progress.
+     * Time spent waiting for several component types at once is split evenly between them, so the starved times of all
+     * component types add up to the time the WorkBench was starved.
+     *
+     * @param componentName
+     * @return
+     */
+    public long getStarvedTime(ComponentName componentName){
+        long starvedTime = this.starvedTime[componentName.ordinal()];
+        int index = 0;
+        for (ComponentName starvingComponentName : this.requiredComponents){
+            if (this.starving[starvingComponentName.ordinal()]) {
+                if (starvingComponentName == componentName) {
+                    starvedTime += evenShare(this.clock - this.starvingSince, index, this.componentsStarving);
+                }
+                index ++;
+            }
         }
+        return starvedTime;
     }
 
     /**
-     * To simulate a completed assembled product, simply decrement the component buffers.
+     * To simulate a completed assembled product, simply remove the units used from the component buffers.
      *
      */
     private void completeAssembledProduct(){
-        for (ComponentName componentName : this.componentBuffers.keySet()){
+        for (ComponentName componentName : this.requiredComponents){
             ArrayList<Component> componentBuffer = this.componentBuffers.get(componentName);
+            int units = this.requiredUnits[componentName.ordinal()];
 
-            //Remove 1st component from the buffer
-            Component component = componentBuffer.remove(0);
-
-            //Retire component (this is so the component can calculate it's system time)
-            component.removeComponentFromSystem(this.entityType, this.clock);
+            for (int unit = 0; unit < units; unit++){
+                //Remove 1st component from the buffer
+                this.retireComponent(componentBuffer.remove(0));
+            }
 
-            if(!this.completedComponents.containsKey(componentName)){
-                this.completedComponents.put(componentName, new ArrayList<Component>());
+            if (componentBuffer.size() < units) {
+                this.componentsShort ++;
             }
-            ArrayList<Component> completedComponents = this.completedComponents.get(componentName);
-            completedComponents.add(component);
+        }
+    }
 
+    /**
+     * Retires a component used in an assembled product (this is so the component can calculate it's system time).
+     *
+     * @param component
+     */
+    protected void retireComponent(Component component){
+        ComponentName componentName = component.getComponentName();
+        if(!this.completedComponents.containsKey(componentName)){
+            this.completedComponents.put(componentName, new ArrayList<Component>());
         }
+        component.removeComponentFromSystem(this.entityType, this.clock);
+        this.recordRetiredComponent(component);
+        sketch(this.endToEndSystemTimeSketches, componentName).record(component.getSystemTime());
+        this.completedComponents.get(componentName).add(component);
     }
 
     public double getThroughput(){
         double productsAssembled = this.getServicesCompleted();
-        double overallTimeInHours = this.getTotalStateTime()/3600;
+        double overallTimeInHours = Ticks.toHours(this.getTotalStateTime());
         return productsAssembled / overallTimeInHours;
     }
 
@@ -188,6 +408,9 @@ public class WorkBench extends Entity {
     public String produceReport(){
         StringBuilder result = new StringBuilder();
         result.append(String.format("[%s]  AssembledProducts: %d  Throughput(AssembledProducts/hr): %f", this.getName(), this.getServicesCompleted(), this.getThroughput()));
+        for (ComponentName componentName : this.getRequiredComponents()){
+            result.append(String.format("\n\t StarvedOf [%s](mins): %.2f", componentName, Ticks.toMinutes(this.getStarvedTime(componentName))));
+        }
         result.append(this.calculateLittlesLaw());
         return result.toString();
     }
@@ -0,0 +1,401 @@
+package entities;
+
+import globals.ComponentName;
+import globals.EntityState;
+import globals.Product;
+import globals.Ticks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * A pool of identical servers assembling the same product, standing in for numServers WorkBenches with the same
+ * components and service times. The servers either share one buffer per component, holding numServers times a
+ * WorkBench's capacity, or keep a buffer each. Inspectors see the station as one WorkBench. With a buffer per server
+ * it offers the emptiest server buffer with room (lowest server first), which is where the inspector would place the
+ * component among numServers WorkBenches given consecutive priorities.
+ *
+ * The work done per clock update does not grow with the number of servers: busy servers are only visited when the
+ * earliest of them is due to complete, and idle servers only when a buffer has become ready or a server idle. The
+ * entity state is the station's (ACTIVE while any server is busy), and the time each server was busy is kept for the
+ * utilization report.
+ */
+public class WorkStation extends WorkBench {
+    private static final long serialVersionUID = 1L;
+    private int numServers;
+    private boolean sharedBuffers;                                                   //true for one buffer per component shared by all servers, false for a buffer per server
+    private ArrayList<HashMap<ComponentName, ArrayList<Component>>> buffers;         //Components waiting in each buffer
+    private int[][] heldUnits;                                                       //Units taken from each buffer by busy servers, indexed by buffer then ComponentName ordinal
+    private int[] buffersShort;                                                      //Number of required components each buffer has fewer units of than needed, a server can start when 0
+    private int[] stationUnits;                                                      //Units at the station (waiting or being assembled), indexed by ComponentName ordinal
+    private int[] routes;                                                            //Buffer offered to inspectors for each component, -1 if all are full, -2 if not yet chosen since the buffers changed
+    private ArrayList<ArrayList<Component>> serverComponents;                        //Components being assembled by each server
+    private long[] serverStart;                                                      //Clock time each server started its current assembly, -1 if idle
+    private long[] serverDue;                                                        //Clock time each server completes its current assembly, Long.MAX_VALUE if idle
+    private long[] serverBusyTime;                                                   //Time (ticks) each server spent assembling, excluding the assembly in progress
+    private int[] serverServicesCompleted;
+    private int busyServers;
+    private long nextDue;                                                            //Earliest completion time of a busy server
+    private long clockIncrement;                                                     //Interval of the last clock update, which completion times are aligned to
+    private boolean startPending;                                                    //A buffer became ready or a server idle since idle servers were last visited
+
+
+    public WorkStation(String name, Product product, int maxBufferSize, int numServers, boolean sharedBuffers){
+        super(name, product, maxBufferSize);
+        if (numServers < 1) {
+            throw new IllegalArgumentException(String.format("%s must have at least one server", name));
+        }
+        this.numServers = numServers;
+        this.sharedBuffers = sharedBuffers;
+        int numBuffers = sharedBuffers ? 1 : numServers;
+        this.buffers = new ArrayList<HashMap<ComponentName, ArrayList<Component>>>();
+        for (int b = 0; b < numBuffers; b++){
+            this.buffers.add(new HashMap<ComponentName, ArrayList<Component>>());
+        }
+        this.heldUnits = new int[numBuffers][ComponentName.values().length];
+        this.buffersShort = new int[numBuffers];
+        this.stationUnits = new int[ComponentName.values().length];
+        this.routes = new int[ComponentName.values().length];
+        Arrays.fill(this.routes, -2);
+        this.serverComponents = new ArrayList<ArrayList<Component>>();
+        for (int s = 0; s < numServers; s++){
+            this.serverComponents.add(new ArrayList<Component>());
+        }
+        this.serverStart = new long[numServers];
+        Arrays.fill(this.serverStart, -1);
+        this.serverDue = new long[numServers];
+        Arrays.fill(this.serverDue, Long.MAX_VALUE);
+        this.serverBusyTime = new long[numServers];
+        this.serverServicesCompleted = new int[numServers];
+        this.nextDue = Long.MAX_VALUE;
+    }
+
+    @Override
+    public void registerComponent(ComponentName componentName, int units){
+        super.registerComponent(componentName, units);
+        for (HashMap<ComponentName, ArrayList<Component>> buffer : this.buffers){
+            if (!buffer.containsKey(componentName)) {
+                buffer.put(componentName, new ArrayList<Component>());
+            }
+        }
+        Arrays.fill(this.buffersShort, this.requiredComponents.length);
+    }
+
+    @Override
+    public void reset(Long seed){
+        super.reset(seed);
+        for (int b = 0; b < this.buffers.size(); b++){
+            for (ArrayList<Component> buffer : this.buffers.get(b).values()){
+                buffer.clear();
+            }
+            Arrays.fill(this.heldUnits[b], 0);
+        }
+        Arrays.fill(this.buffersShort, this.requiredComponents.length);
+        Arrays.fill(this.stationUnits, 0);
+        Arrays.fill(this.routes, -2);
+        for (ArrayList<Component> components : this.serverComponents){
+            components.clear();
+        }
+        Arrays.fill(this.serverStart, -1);
+        Arrays.fill(this.serverDue, Long.MAX_VALUE);
+        Arrays.fill(this.serverBusyTime, 0);
+        Arrays.fill(this.serverServicesCompleted, 0);
+        this.busyServers = 0;
+        this.nextDue = Long.MAX_VALUE;
+        this.startPending = false;
+    }
+
+    public int getNumServers(){ return this.numServers; }
+
+    public boolean hasSharedBuffers(){ return this.sharedBuffers; }
+
+    /**
+     * Returns the number of units of a component each of the station's buffers can hold.
+     *
+     * @param componentName
+     * @return
+     */
+    @Override
+    public int getBufferCapacity(ComponentName componentName){
+        return this.sharedBuffers ? this.numServers * super.getBufferCapacity(componentName) : super.getBufferCapacity(componentName);
+    }
+
+    /**
+     * Returns the size (waiting and being assembled) of the buffer a component would be placed in.
+     *
+     * @param componentName
+     * @return
+     */
+    @Override
+    public int getBufferSize(ComponentName componentName){
+        int b = this.route(componentName);
+        return b < 0 ? this.getBufferCapacity(componentName) : this.bufferSize(b, componentName);
+    }
+
+    @Override
+    public boolean bufferAvailable(ComponentName componentName){
+        return this.requiredUnits[componentName.ordinal()] > 0 && this.route(componentName) >= 0;
+    }
+
+    private int bufferSize(int b, ComponentName componentName){
+        return this.buffers.get(b).get(componentName).size() + this.heldUnits[b][componentName.ordinal()];
+    }
+
+    /**
+     * Chooses the buffer with room holding the fewest units of a component, lowest first. The choice only changes when
+     * the buffers do, so it is kept until then.
+     *
+     * @param componentName
+     * @return
+     */
+    private int route(ComponentName componentName){
+        int componentIndex = componentName.ordinal();
+        if (this.routes[componentIndex] == -2) {
+            int capacity = this.getBufferCapacity(componentName);
+            int route = -1;
+            int minBufferSize = capacity;
+            for (int b = 0; b < this.buffers.size(); b++){
+                int bufferSize = this.bufferSize(b, componentName);
+                if (bufferSize < minBufferSize) {
+                    minBufferSize = bufferSize;
+                    route = b;
+                }
+            }
+            this.routes[componentIndex] = route;
+        }
+        return this.routes[componentIndex];
+    }
+
+    /**
+     * Places a component in the buffer offered by getBufferSize(). It is assumed that bufferAvailable() was true.
+     *
+     * @param component
+     */
+    @Override
+    public void addComponent(Component component){
+        ComponentName componentName = component.getComponentName();
+        int componentIndex = componentName.ordinal();
+        int b = this.route(componentName);
+        ArrayList<Component> buffer = this.buffers.get(b).get(componentName);
+
+        this.recordArrival(component);
+        buffer.add(component);
+        this.stationUnits[componentIndex] ++;
+        Arrays.fill(this.routes, -2);
+        if (buffer.size() == this.requiredUnits[componentIndex]) {
+            this.buffersShort[b] --;
+            this.startPending = this.startPending || this.buffersShort[b] == 0;
+        }
+
+        //The station is no longer starved of the component once a buffer has enough units
+        if (this.isStarving(componentName) && buffer.size() >= this.requiredUnits[componentIndex]) {
+            this.stopStarving(componentName);
+        }
+    }
+
+    /**
+     * Resamples as WorkBench does, replacing the rest of every assembly in progress (one that WorkBench would still
+     * decrement) with a new service time from the next clock update.
+     *
+     * @param count
+     * @param random
+     */
+    @Override
+    public void resampleServiceTimes(int count, Random random){
+        this.getServiceTimes().generate(count, this.getServiceRate(), random);
+        long nextDue = Long.MAX_VALUE;
+        for (int s = 0; s < this.numServers; s++){
+            if (this.serverDue[s] != Long.MAX_VALUE && this.serverDue[s] > this.clock + this.clockIncrement) {
+                long serviceTime = this.getServiceTimes().next();
+                this.serverDue[s] = this.clock + ((serviceTime + this.clockIncrement - 1) / this.clockIncrement + 1) * this.clockIncrement;
+            }
+            nextDue = Math.min(nextDue, this.serverDue[s]);
+        }
+        this.nextDue = nextDue;
+    }
+
+    /**
+     * Updates the clock by 'interval' as WorkBench.clockUpdate() does, for every server: servers due to complete retire
+     * their components, then idle servers start on any buffer holding the units for a product. The station is ACTIVE
+     * while any server is busy and BLOCKED otherwise.
+     *
+     * @param interval
+     */
+    @Override
+    public void clockUpdate(long interval){
+        EntityState currentState = this.getState();
+        this.incrementStateTimer(currentState, interval);
+        this.clock += interval;
+        this.clockIncrement = interval;
+        if (currentState == EntityState.DONE) {
+            this.sampleComponentBuffers();
+            return;
+        }
+
+        if (this.clock >= this.nextDue) {
+            this.completeDueServers();
+        }
+        if (this.startPending || currentState == EntityState.INITIALIZED) {
+            this.startIdleServers(interval);
+        }
+
+        if (this.busyServers > 0) {
+            this.setState(EntityState.ACTIVE);
+        } else {
+            if (currentState != EntityState.BLOCKED) {
+                this.startStarvation();
+            }
+            this.setState(EntityState.BLOCKED);
+        }
+
+        //Sample the component buffers
+        this.sampleComponentBuffers();
+    }
+
+    /**
+     * Retires the components of every server whose assembly is complete.
+     *
+     */
+    private void completeDueServers(){
+        long nextDue = Long.MAX_VALUE;
+        for (int s = 0; s < this.numServers; s++){
+            if (this.serverDue[s] > this.clock) {
+                nextDue = Math.min(nextDue, this.serverDue[s]);
+                continue;
+            }
+            int b = this.sharedBuffers ? 0 : s;
+            ArrayList<Component> components = this.serverComponents.get(s);
+            for (Component component : components){
+                int componentIndex = component.getComponentName().ordinal();
+                this.heldUnits[b][componentIndex] --;
+                this.stationUnits[componentIndex] --;
+                this.retireComponent(component);
+            }
+            components.clear();
+            this.serverBusyTime[s] += this.clock - this.serverStart[s];
+            this.serverStart[s] = -1;
+            this.serverDue[s] = Long.MAX_VALUE;
+            this.serverServicesCompleted[s] ++;
+            this.busyServers --;
+            this.incrementServicesCompleted();
+        }
+        this.nextDue = nextDue;
+        this.startPending = true;
+        Arrays.fill(this.routes, -2);
+    }
+
+    /**
+     * Starts every idle server whose buffer holds the units for a product, taking the units out of the buffer. A service
+     * of t ticks completes on the clock update WorkBench would complete it on: after ceil(t / interval) decrements.
+     *
+     * @param interval
+     */
+    private void startIdleServers(long interval){
+        this.startPending = false;
+        for (int s = 0; s < this.numServers; s++){
+            int b = this.sharedBuffers ? 0 : s;
+            if (this.serverStart[s] >= 0 || this.buffersShort[b] > 0) {
+                continue;
+            }
+            HashMap<ComponentName, ArrayList<Component>> buffer = this.buffers.get(b);
+            ArrayList<Component> components = this.serverComponents.get(s);
+            for (ComponentName componentName : this.requiredComponents){
+                ArrayList<Component> componentBuffer = buffer.get(componentName);
+                int units = this.requiredUnits[componentName.ordinal()];
+                for (int unit = 0; unit < units; unit++){
+                    components.add(componentBuffer.remove(0));
+                }
+                this.heldUnits[b][componentName.ordinal()] += units;
+                if (componentBuffer.size() < units) {
+                    this.buffersShort[b] ++;
+                }
+            }
+
+            long serviceTime = this.getServiceTimes().next();
+            this.startService(null, serviceTime);
+            long decrements = serviceTime <= 0 ? 0 : (serviceTime + interval - 1) / interval;
+            this.serverStart[s] = this.clock;
+            this.serverDue[s] = this.clock + (decrements + 1) * interval;
+            this.nextDue = Math.min(this.nextDue, this.serverDue[s]);
+            this.busyServers ++;
+        }
+    }
+
+    /**
+     * Starts attributing starved time to each component type no buffer holds enough units of when every server has
+     * become idle.
+     *
+     */
+    private void startStarvation(){
+        for (ComponentName componentName : this.requiredComponents){
+            boolean starved = true;
+            for (HashMap<ComponentName, ArrayList<Component>> buffer : this.buffers){
+                starved = starved && buffer.get(componentName).size() < this.requiredUnits[componentName.ordinal()];
+            }
+            if (starved) {
+                this.startStarving(componentName);
+            }
+        }
+    }
+
+    /**
+     * Samples the units at the station, waiting or being assembled, as WorkBench samples its buffers.
+     *
+     */
+    @Override
+    protected void sampleComponentBuffers(){
+        for (ComponentName cn : this.registeredComponents){
+            this.componentBufferSampleSum[cn.ordinal()] += this.stationUnits[cn.ordinal()];
+        }
+        this.bufferSampleCount ++;
+    }
+
+    /**
+     * Returns the time (ticks) a server has spent assembling, including an assembly in progress.
+     *
+     * @param server
+     * @return
+     */
+    public long getServerBusyTime(int server){
+        long busyTime = this.serverBusyTime[server];
+        if (this.serverStart[server] >= 0) {
+            busyTime += this.clock - this.serverStart[server];
+        }
+        return busyTime;
+    }
+
+    /**
+     * Returns the fraction of the simulated time a server spent assembling.
+     *
+     * @param server
+     * @return
+     */
+    public double getServerUtilization(int server){
+        return (double) this.getServerBusyTime(server) / this.getTotalStateTime();
+    }
+
+    /**
+     * Returns the fraction of the station's server time spent assembling.
+     *
+     * @return
+     */
+    public double getUtilization(){
+        long busyTime = 0;
+        for (int s = 0; s < this.numServers; s++){
+            busyTime += this.getServerBusyTime(s);
+        }
+        return (double) busyTime / ((double) this.getTotalStateTime() * this.numServers);
+    }
+
+    @Override
+    public String produceReport(){
+        StringBuilder result = new StringBuilder(super.produceReport());
+        result.append(String.format("\n\t Servers: %d (%s buffers)  Utilization: %.2f%%", this.numServers, this.sharedBuffers ? "shared" : "separate", this.getUtilization() * 100));
+        for (int s = 0; s < this.numServers; s++){
+            result.append(String.format("\n\t Server %d  AssembledProducts: %d  Utilization: %.2f%%  Busy(mins): %.2f", s + 1, this.serverServicesCompleted[s], this.getServerUtilization(s) * 100, Ticks.toMinutes(this.getServerBusyTime(s))));
+        }
+        return result.toString();
+    }
+}
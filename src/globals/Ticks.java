@@ -0,0 +1,21 @@
+package globals;
+
+/**
+ * Simulation time is kept as a long number of ticks (microseconds) so that repeatedly adding the clock increment does
+ * not drift. Times are converted to seconds, minutes or hours only when they are reported.
+ */
+public final class Ticks {
+    public static final long TICKS_PER_SECOND = 1000000L;
+
+    private Ticks(){ }
+
+    public static long fromSeconds(double seconds){ return Math.round(seconds * TICKS_PER_SECOND); }
+
+    public static long fromHours(double hours){ return Math.round(hours * 3600 * TICKS_PER_SECOND); }
+
+    public static double toSeconds(long ticks){ return (double) ticks / TICKS_PER_SECOND; }
+
+    public static double toMinutes(long ticks){ return (double) ticks / (60 * TICKS_PER_SECOND); }
+
+    public static double toHours(long ticks){ return (double) ticks / (3600 * TICKS_PER_SECOND); }
+}
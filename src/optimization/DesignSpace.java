@@ -0,0 +1,53 @@
+package optimization;
+
+import simulation.Configuration;
+
+import java.util.ArrayList;
+
+public class DesignSpace {
+
+    /**
+     * Enumerates all candidate designs: every buffer size in [minBufferSize, maxBufferSize] combined with every
+     * permutation of the Inspector1 and Inspector2 workbench priorities of the base configuration.
+     *
+     * @param base
+     * @param minBufferSize
+     * @param maxBufferSize
+     * @return
+     */
+    public static ArrayList<Configuration> enumerate(Configuration base, int minBufferSize, int maxBufferSize){
+        ArrayList<Configuration> designs = new ArrayList<Configuration>();
+        ArrayList<ArrayList<String>> inspectorOneOrders = permutations(base.getInspectorOnePriorities());
+        ArrayList<ArrayList<String>> inspectorTwoOrders = permutations(base.getInspectorTwoPriorities());
+
+        for (int bufferSize = minBufferSize; bufferSize <= maxBufferSize; bufferSize++){
+            for (ArrayList<String> inspectorOneOrder : inspectorOneOrders){
+                for (ArrayList<String> inspectorTwoOrder : inspectorTwoOrders){
+                    Configuration design = new Configuration(base);
+                    design.setWorkbenchComponentBufferSize(bufferSize);
+                    design.setInspectorOnePriorities(inspectorOneOrder);
+                    design.setInspectorTwoPriorities(inspectorTwoOrder);
+                    designs.add(design);
+                }
+            }
+        }
+        return designs;
+    }
+
+    private static ArrayList<ArrayList<String>> permutations(ArrayList<String> items){
+        ArrayList<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
+        if (items.size() <= 1){
+            result.add(new ArrayList<String>(items));
+            return result;
+        }
+        for (int i = 0; i < items.size(); i++){
+            ArrayList<String> remaining = new ArrayList<String>(items);
+            String first = remaining.remove(i);
+            for (ArrayList<String> permutation : permutations(remaining)){
+                permutation.add(0, first);
+                result.add(permutation);
+            }
+        }
+        return result;
+    }
+}
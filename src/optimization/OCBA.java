@@ -0,0 +1,173 @@
+package optimization;
+
+import simulation.Configuration;
+import statistics.Calculator;
+
+import java.util.ArrayList;
+
+/**
+ * Optimal Computing Budget Allocation (Chen et al.) over a finite set of candidate designs.
+ * After n0 initial replications per design, each stage spreads a further delta replications across designs in the
+ * OCBA ratios: N_i/N_j = (s_i/d_i)^2/(s_j/d_j)^2 for non-best designs and N_b = s_b*sqrt(sum(N_i^2/s_i^2)).
+ * Stops once the approximate probability of correct selection (APCS, a Bonferroni lower bound under a normal
+ * approximation of the design means) reaches the target, or the total replication budget has been spent. APCS is an
+ * estimate from the replications run so far, not a guarantee. Designs within the indifference zone of the best count
+ * as correct selections, otherwise designs that only differ in rarely used tie breaking priorities would exhaust the
+ * budget. The zone is a fraction of the best design's mean, so that one setting suits objectives in any units.
+ */
+public class OCBA {
+    private static final double MIN_STD_DEV = 1e-6;                                     //Floor for standard deviations and differences, avoids division by zero
+    private ArrayList<Configuration> designs;                                           //Candidate designs
+    private Objective objective;                                                        //Objective to optimize
+    private ParallelEvaluator evaluator;                                                //Runs replications in parallel
+    private int initialReplications;                                                    //n0, replications per design before the first allocation
+    private int replicationsPerStage;                                                   //delta, additional replications allocated per stage
+    private int maxTotalReplications;                                                   //Total replication budget
+    private double targetProbabilityOfCorrectSelection;                                 //Stop once APCS reaches this value
+    private double relativeIndifferenceZone;                                            //Smallest objective difference worth distinguishing, as a fraction of the best mean
+    private ArrayList<ArrayList<Double>> results;                                       //Objective value of each replication, per design
+    private int bestDesignIndex;
+
+    public OCBA(ArrayList<Configuration> designs, Objective objective, ParallelEvaluator evaluator, int initialReplications, int replicationsPerStage, int maxTotalReplications, double targetProbabilityOfCorrectSelection, double relativeIndifferenceZone){
+        this.designs = designs;
+        this.objective = objective;
+        this.evaluator = evaluator;
+        this.initialReplications = initialReplications;
+        this.replicationsPerStage = replicationsPerStage;
+        this.maxTotalReplications = maxTotalReplications;
+        this.targetProbabilityOfCorrectSelection = targetProbabilityOfCorrectSelection;
+        this.relativeIndifferenceZone = relativeIndifferenceZone;
+        this.results = new ArrayList<ArrayList<Double>>();
+        for (int i = 0; i < designs.size(); i++){
+            this.results.add(new ArrayList<Double>());
+        }
+    }
+
+    /**
+     * Runs the sequential allocation procedure and returns the selected design.
+     *
+     * @return
+     */
+    public Configuration run(){
+        int[] allocation = new int[this.designs.size()];
+        for (int i = 0; i < allocation.length; i++){
+            allocation[i] = this.initialReplications;
+        }
+        this.addResults(this.evaluator.evaluate(this.designs, allocation));
+
+        while (this.getTotalReplications() < this.maxTotalReplications && this.getProbabilityOfCorrectSelection() < this.targetProbabilityOfCorrectSelection){
+            int budget = Math.min(this.getTotalReplications() + this.replicationsPerStage, this.maxTotalReplications);
+            this.addResults(this.evaluator.evaluate(this.designs, this.allocate(budget)));
+        }
+        return this.designs.get(this.bestDesignIndex);
+    }
+
+    /**
+     * Computes the number of additional replications for each design so that the total reaches budget in the OCBA ratios.
+     *
+     * @param budget
+     * @return
+     */
+    private int[] allocate(int budget){
+        int k = this.designs.size();
+        double[] ratios = new double[k];
+        double bestStdDev = this.getStdDev(this.bestDesignIndex);
+        double sumNonBest = 0.0;
+        double sumSquaredOverVariance = 0.0;
+        double indifferenceZone = this.getIndifferenceZone();
+
+        //Non best designs, relative to an arbitrary reference (the ratios are normalized below)
+        for (int i = 0; i < k; i++){
+            if (i != this.bestDesignIndex){
+                double difference = Math.max(Math.abs(this.getMean(this.bestDesignIndex) - this.getMean(i)), Math.max(indifferenceZone, MIN_STD_DEV));
+                double stdDev = this.getStdDev(i);
+                ratios[i] = (stdDev / difference) * (stdDev / difference);
+                sumNonBest += ratios[i];
+                sumSquaredOverVariance += (ratios[i] * ratios[i]) / (stdDev * stdDev);
+            }
+        }
+        ratios[this.bestDesignIndex] = bestStdDev * Math.sqrt(sumSquaredOverVariance);
+        double sumRatios = sumNonBest + ratios[this.bestDesignIndex];
+
+        //Hand out the stage one replication at a time to the design furthest below its OCBA share of the budget,
+        //this never takes replications away from a design and never exceeds the stage size
+        int[] additional = new int[k];
+        for (int assigned = this.getTotalReplications(); assigned < budget; assigned++){
+            int candidate = 0;
+            double maxDeficit = -Double.MAX_VALUE;
+            for (int i = 0; i < k; i++){
+                double deficit = budget * ratios[i] / sumRatios - (this.results.get(i).size() + additional[i]);
+                if (deficit > maxDeficit){
+                    maxDeficit = deficit;
+                    candidate = i;
+                }
+            }
+            additional[candidate] ++;
+        }
+        return additional;
+    }
+
+    private void addResults(ArrayList<ArrayList<Double>> newResults){
+        for (int i = 0; i < newResults.size(); i++){
+            this.results.get(i).addAll(newResults.get(i));
+        }
+        this.bestDesignIndex = 0;
+        for (int i = 1; i < this.designs.size(); i++){
+            if (this.objective.isBetter(this.getMean(i), this.getMean(this.bestDesignIndex))){
+                this.bestDesignIndex = i;
+            }
+        }
+    }
+
+    /**
+     * Approximate probability of correct selection, Bonferroni lower bound:
+     * APCS = 1 - sum over non-best designs of P(design i is actually better than the current best).
+     *
+     * @return
+     */
+    public double getProbabilityOfCorrectSelection(){
+        int best = this.bestDesignIndex;
+        double bestVarianceOfMean = Math.pow(this.getStdDev(best), 2) / this.results.get(best).size();
+        double probabilityOfIncorrectSelection = 0.0;
+        double indifferenceZone = this.getIndifferenceZone();
+        for (int i = 0; i < this.designs.size(); i++){
+            if (i != best){
+                double difference = Math.max(Math.abs(this.getMean(best) - this.getMean(i)), indifferenceZone);
+                double stdDevOfDifference = Math.sqrt(bestVarianceOfMean + Math.pow(this.getStdDev(i), 2) / this.results.get(i).size());
+                probabilityOfIncorrectSelection += Calculator.standardNormalCdf(-difference / stdDevOfDifference);
+            }
+        }
+        return Math.max(0.0, 1 - probabilityOfIncorrectSelection);
+    }
+
+    public int getTotalReplications(){
+        int total = 0;
+        for (ArrayList<Double> designResults : this.results){
+            total += designResults.size();
+        }
+        return total;
+    }
+
+    /**
+     * Smallest objective difference worth distinguishing, in the units of the objective.
+     *
+     * @return
+     */
+    private double getIndifferenceZone(){
+        return this.relativeIndifferenceZone * Math.abs(this.getMean(this.bestDesignIndex));
+    }
+
+    private double getMean(int designIndex){ return Calculator.mean(this.results.get(designIndex)); }
+
+    private double getStdDev(int designIndex){ return Math.max(Math.sqrt(Calculator.variance(this.results.get(designIndex))), MIN_STD_DEV); }
+
+    public String produceReport(){
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < this.designs.size(); i++){
+            result.append(String.format("%s %s  %s: %f  StdDev: %f  Replications: %d\n", (i == this.bestDesignIndex ? "*" : " "), this.designs.get(i).getDescription(), this.objective, this.getMean(i), this.getStdDev(i), this.results.get(i).size()));
+        }
+        result.append(String.format("Selected: %s  TotalReplications: %d", this.designs.get(this.bestDesignIndex).getDescription(), this.getTotalReplications()));
+        result.append(String.format("\nApproximate PCS: %f (Bonferroni lower bound under a normal approximation, designs within %.1f%% of the best mean count as correct; an estimate, not a guarantee)", this.getProbabilityOfCorrectSelection(), this.relativeIndifferenceZone * 100));
+        return result.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package optimization;
+
+import globals.EntityType;
+import simulation.EntityResult;
+import simulation.ReplicationResult;
+
+public enum Objective {
+    THROUGHPUT(EntityType.WORKBENCH, true),                                            //Total products assembled per hour across all workbenches (maximize)
+    IDLE(EntityType.INSPECTOR, false);                                                  //Average inspector idle % (minimize)
+
+    public final EntityType entityType;
+    public final boolean maximize;
+
+    Objective(EntityType entityType, boolean maximize){
+        this.entityType = entityType;
+        this.maximize = maximize;
+    }
+
+    /**
+     * Evaluates the objective for the results of a finished replication.
+     *
+     * @param result
+     * @return
+     */
+    public Double evaluate(ReplicationResult result){
+        double sum = 0.0;
+        int count = 0;
+        for (EntityResult entityResult : result.getEntityResults()){
+            if (entityResult.getEntityType() == this.entityType){
+                sum += entityResult.getQuantityOfInterest();
+                count ++;
+            }
+        }
+        return this.maximize ? sum : sum / count;
+    }
+
+    /**
+     * Returns true if value a is a better objective value than value b.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public boolean isBetter(double a, double b){
+        return this.maximize ? a > b : a < b;
+    }
+}
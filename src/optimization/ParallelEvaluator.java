@@ -0,0 +1,121 @@
+package optimization;
+
+import cache.ResultCache;
+import results.ColumnarResultsWriter;
+import simulation.Configuration;
+import simulation.Replication;
+import simulation.ReplicationResult;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs replications of candidate designs on one pool of worker threads, kept for every stage of an optimizer run and
+ * shut down by close().
+ */
+public class ParallelEvaluator implements AutoCloseable {
+    private Objective objective;                                                        //Objective evaluated at the end of each replication
+    private ExecutorService executor;                                                   //Worker threads shared by every evaluate()
+    private int replicationsRun;                                                        //Total number of replications run by this evaluator
+    private ResultCache resultCache;                                                    //Optional cache of previously computed replications, may be null
+    private ColumnarResultsWriter resultsWriter;                                        //Optional export of every replication's results, may be null
+
+    public ParallelEvaluator(Objective objective, int numThreads){
+        this.objective = objective;
+        this.executor = Executors.newFixedThreadPool(numThreads);
+        this.replicationsRun = 0;
+    }
+
+    public ParallelEvaluator(Objective objective, int numThreads, ResultCache resultCache){
+        this(objective, numThreads);
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Exports the results of every replication run from now on, with the design description as the scenario.
+     *
+     * @param resultsWriter
+     */
+    public void setResultsWriter(ColumnarResultsWriter resultsWriter){
+        this.resultsWriter = resultsWriter;
+    }
+
+    /**
+     * Runs the requested number of additional replications for each design on the worker threads and returns the
+     * objective value of each replication, grouped by design (same order as designs). If a replication fails or the
+     * calling thread is interrupted, the replications not yet finished are cancelled (the interrupt flag is kept set).
+     *
+     * @param designs
+     * @param additionalReplications
+     * @return
+     */
+    public ArrayList<ArrayList<Double>> evaluate(ArrayList<Configuration> designs, int[] additionalReplications){
+        ArrayList<ArrayList<Future<Double>>> futures = new ArrayList<ArrayList<Future<Double>>>();
+        int replicationNumber = this.replicationsRun;
+        try {
+            for (int i = 0; i < designs.size(); i++){
+                Configuration design = designs.get(i);
+                ArrayList<Future<Double>> designFutures = new ArrayList<Future<Double>>();
+                for (int r = 0; r < additionalReplications[i]; r++){
+                    replicationNumber ++;
+                    int number = replicationNumber;
+                    designFutures.add(this.executor.submit(() -> {
+                        Replication replication = new Replication(design, number);
+                        ReplicationResult result;
+                        if (this.resultCache != null) {
+                            result = this.resultCache.run(replication);
+                        } else {
+                            replication.run();
+                            result = replication.getResult();
+                        }
+                        if (this.resultsWriter != null) {
+                            this.resultsWriter.write(design.getDescription(), number, result);
+                        }
+                        return this.objective.evaluate(result);
+                    }));
+                }
+                futures.add(designFutures);
+            }
+
+            ArrayList<ArrayList<Double>> results = new ArrayList<ArrayList<Double>>();
+            for (ArrayList<Future<Double>> designFutures : futures){
+                ArrayList<Double> designResults = new ArrayList<Double>();
+                for (Future<Double> future : designFutures){
+                    designResults.add(future.get());
+                    this.replicationsRun ++;
+                }
+                results.add(designResults);
+            }
+            return results;
+        } catch (InterruptedException e){
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during design evaluation", e);
+        } catch (ExecutionException | RuntimeException e){
+            cancel(futures);
+            throw new RuntimeException("Replication failed during design evaluation", e);
+        }
+    }
+
+    private static void cancel(ArrayList<ArrayList<Future<Double>>> futures){
+        for (ArrayList<Future<Double>> designFutures : futures){
+            for (Future<Double> future : designFutures){
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Shuts down the worker threads once the optimizer run is over.
+     *
+     */
+    @Override
+    public void close(){
+        this.executor.shutdown();
+    }
+
+    public int getReplicationsRun(){ return this.replicationsRun; }
+}
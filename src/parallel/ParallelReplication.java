@@ -0,0 +1,269 @@
+package parallel;
+
+import entities.*;
+import globals.EntityState;
+import globals.EntityType;
+import globals.Ticks;
+import simulation.BatchRecorder;
+import simulation.Configuration;
+import simulation.Replication;
+import simulation.RunControl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs a single replication as a conservative parallel discrete-event simulation. All inspectors form one logical
+ * process (LP) and the workbenches are split round robin across numWorkbenchPartitions further LPs, each on its own thread.
+ *
+ * Within a clock iteration the sequential engine updates inspectors before workbenches, so an inspector reads workbench
+ * buffers as they were at the end of the previous iteration and a workbench sees components placed in the current
+ * iteration. The LPs follow the same rules:
+ *  - placements become messages stamped with the iteration, delivered to the workbench LP before it updates that iteration;
+ *  - a workbench LP may run iteration i once the inspector LP has promised that no messages (and no DONE inspector)
+ *    will appear at or before i;
+ *  - an inspector only waits for workbench LPs when it is about to place a component, until they have finished i - 1.
+ * The inspector LP's promise uses lookahead: an inspector that is still counting down an inspection can not place a
+ * component (or become DONE) until its countdown expires, which lets the workbench LPs run ahead.
+ * A run control is checked by the inspector LP every RunControl.CHECK_INTERVAL iterations. When it asks to stop, the
+ * inspector LP runs on to the iteration it has already promised the workbench LPs, and every LP stops after it.
+ *
+ * Results are identical to Replication.run() for the same configuration and seed.
+ */
+public class ParallelReplication extends Replication {
+    private int numWorkbenchPartitions;                                                 //Number of workbench LPs
+    private ArrayList<Inspector> inspectors;
+    private ArrayList<ArrayList<WorkBench>> workbenchPartitions;
+    private HashMap<WorkBench, Integer> partitionOfWorkbench;
+    private ArrayList<ConcurrentLinkedQueue<PlacementMessage>> messageQueues;           //Placement messages for each workbench LP, in iteration order
+    private AtomicLong inspectorSafeIteration;                                          //No messages or DONE inspectors will appear at or before this iteration
+    private AtomicLong stopIteration;                                                   //Iteration after which the replication ends because an inspector is DONE
+    private AtomicLongArray workbenchProgress;                                          //Last iteration completed by each workbench LP
+    private HashMap<Inspector, Long> doneIterations;                                    //Iteration in which each inspector became DONE
+    private long currentInspectorIteration;                                             //Iteration being run by the inspector LP, stamps outgoing messages
+    private String controlStopReason;                                                   //Why the run control stopped the inspector LP, null unless it did
+    private volatile Throwable failure;
+
+    public ParallelReplication(Configuration configuration, int replicationNumber, int numWorkbenchPartitions){
+        super(configuration, replicationNumber);
+        this.numWorkbenchPartitions = numWorkbenchPartitions;
+    }
+
+    @Override
+    public void run(){
+        long clockIncrementSize = Ticks.fromSeconds(this.configuration.getClockIncrementSize());
+        Double maxReplicationLengthHours = this.configuration.getMaxReplicationLengthHours();
+        long maxReplicationLength = Ticks.fromHours(maxReplicationLengthHours);
+        this.entities = init(this.configuration, this.seed);
+        this.batchRecorder = new BatchRecorder(this.entities, clockIncrementSize, this.configuration.getWarmupHours(), this.configuration.getBatchLengthHours());
+        this.partition();
+
+        //Last iteration allowed by MAX_REPLICATION_LENGTH_HOURS, the first iteration with iteration * increment > maximum
+        long maxIteration = maxReplicationLength / clockIncrementSize + 1;
+        long simulatedBudget = this.startRunControl(maxReplicationLength);
+        long lastIteration = simulatedBudget == Long.MAX_VALUE ? maxIteration : Math.min(maxIteration, simulatedBudget / clockIncrementSize + 1);
+        if (this.stoppedBeforeStart()) {
+            this.finishRunControl(0);
+            this.gatherCompletedComponents();
+            return;
+        }
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread(() -> this.runInspectors(clockIncrementSize, lastIteration), "LP-inspectors"));
+        for (int p = 0; p < this.numWorkbenchPartitions; p++){
+            int partition = p;
+            threads.add(new Thread(() -> this.runWorkbenches(partition, clockIncrementSize, lastIteration), "LP-workbenches-" + p));
+        }
+        for (Thread thread : threads){
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads){
+                thread.join();
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for logical processes", e);
+        }
+        if (this.failure != null) {
+            throw new RuntimeException("Logical process failed", this.failure);
+        }
+
+        long finalIteration = Math.min(lastIteration, this.stopIteration.get());
+        this.clockIterations = finalIteration + 1;
+        for (Entity entity : this.entities){
+            Long doneIteration = this.doneIterations.get(entity);
+            if (doneIteration != null && doneIteration < finalIteration) {
+                this.stopReason = String.format("REPLICATION %d has been stopped since %s is in DONE state", this.replicationNumber, entity.getName());
+            }
+        }
+        if (finalIteration * clockIncrementSize > maxReplicationLength) {
+            this.stopReason = String.format("REPLICATION %d has been stopped since %s [MAX_REPLICATION_LENGTH_HOURS] has been reached", this.replicationNumber, maxReplicationLengthHours);
+        } else if (this.stopReason == null && finalIteration * clockIncrementSize > simulatedBudget) {
+            this.stopAtSimulatedBudget();
+        } else if (this.stopReason == null && this.controlStopReason != null) {
+            this.stopEarly(this.controlStopReason);
+        }
+        this.finishRunControl(this.clockIterations * clockIncrementSize);
+        this.gatherCompletedComponents();
+    }
+
+    /**
+     * Assigns inspectors to the inspector LP and workbenches round robin to the workbench LPs, and routes inspector
+     * placements through timestamped messages.
+     *
+     */
+    private void partition(){
+        this.inspectors = new ArrayList<Inspector>();
+        this.workbenchPartitions = new ArrayList<ArrayList<WorkBench>>();
+        this.partitionOfWorkbench = new HashMap<WorkBench, Integer>();
+        this.messageQueues = new ArrayList<ConcurrentLinkedQueue<PlacementMessage>>();
+        this.workbenchProgress = new AtomicLongArray(this.numWorkbenchPartitions);
+        this.inspectorSafeIteration = new AtomicLong(-1);
+        this.stopIteration = new AtomicLong(Long.MAX_VALUE);
+        this.doneIterations = new HashMap<Inspector, Long>();
+        for (int p = 0; p < this.numWorkbenchPartitions; p++){
+            this.workbenchPartitions.add(new ArrayList<WorkBench>());
+            this.messageQueues.add(new ConcurrentLinkedQueue<PlacementMessage>());
+            this.workbenchProgress.set(p, -1);
+        }
+
+        int nextPartition = 0;
+        for (Entity entity : this.entities){
+            if (entity.getEntityType() == EntityType.INSPECTOR) {
+                Inspector inspector = (Inspector) entity;
+                inspector.setComponentOutbox((workBench, component) -> this.messageQueues.get(this.partitionOfWorkbench.get(workBench)).add(new PlacementMessage(this.currentInspectorIteration, workBench, component)));
+                this.inspectors.add(inspector);
+            } else {
+                WorkBench workbench = (WorkBench) entity;
+                this.workbenchPartitions.get(nextPartition).add(workbench);
+                this.partitionOfWorkbench.put(workbench, nextPartition);
+                nextPartition = (nextPartition + 1) % this.numWorkbenchPartitions;
+            }
+        }
+    }
+
+    private void runInspectors(long clockIncrementSize, long lastIteration){
+        try {
+            long doneStop = Long.MAX_VALUE;
+            long controlStop = Long.MAX_VALUE;
+            for (long i = 0; i <= lastIteration && i <= doneStop && i <= controlStop; i++){
+                this.currentInspectorIteration = i;
+                for (Inspector inspector : this.inspectors){
+                    if (inspector.getState() == EntityState.DONE) {
+                        continue;
+                    }
+                    if (inspector.willAttemptPlacement()) {
+                        for (WorkBench workbench : inspector.getRegisteredWorkbenches()){
+                            this.awaitWorkbenchProgress(this.partitionOfWorkbench.get(workbench), i - 1);
+                        }
+                    }
+                    inspector.clockUpdate(clockIncrementSize);
+                    if (inspector.getState() == EntityState.DONE) {
+                        this.doneIterations.put(inspector, i);
+                        doneStop = Math.min(doneStop, i + 1);
+                    }
+                }
+                this.batchRecorder.iterationCompleted(i + 1, this.inspectors);
+
+                //The workbench LPs may already have run up to the promised iteration, so a run control stops there
+                if (doneStop == Long.MAX_VALUE && controlStop == Long.MAX_VALUE && (i + 1) % RunControl.CHECK_INTERVAL == 0) {
+                    this.controlStopReason = this.checkRunControl((i + 1) * clockIncrementSize);
+                    if (this.controlStopReason != null) {
+                        controlStop = Math.max(i, this.inspectorSafeIteration.get());
+                    }
+                }
+
+                //Promise the workbench LPs everything up to the next possible placement attempt
+                long safeIteration = i;
+                if (doneStop == Long.MAX_VALUE) {
+                    long updatesUntilPlacement = Long.MAX_VALUE;
+                    for (Inspector inspector : this.inspectors){
+                        updatesUntilPlacement = Math.min(updatesUntilPlacement, inspector.getUpdatesUntilPlacementAttempt(clockIncrementSize));
+                    }
+                    safeIteration = i + updatesUntilPlacement;
+                }
+                if (Math.min(doneStop, controlStop) != Long.MAX_VALUE) {
+                    this.stopIteration.set(Math.min(doneStop, controlStop));
+                }
+                if (safeIteration > this.inspectorSafeIteration.get()) {
+                    this.inspectorSafeIteration.set(safeIteration);
+                }
+            }
+            this.inspectorSafeIteration.set(Long.MAX_VALUE);
+        } catch (Throwable t){
+            this.failure = t;
+        }
+    }
+
+    private void runWorkbenches(int partition, long clockIncrementSize, long lastIteration){
+        try {
+            ConcurrentLinkedQueue<PlacementMessage> messageQueue = this.messageQueues.get(partition);
+            for (long i = 0; i <= lastIteration; i++){
+                this.awaitInspectorSafeIteration(i);
+                if (i > this.stopIteration.get()) {
+                    break;
+                }
+
+                //Deliver the components placed by inspectors earlier in this iteration
+                while (messageQueue.peek() != null && messageQueue.peek().iteration == i) {
+                    PlacementMessage message = messageQueue.poll();
+                    message.workBench.addComponent(message.component);
+                }
+
+                for (WorkBench workbench : this.workbenchPartitions.get(partition)){
+                    if (workbench.getState() != EntityState.DONE) {
+                        workbench.clockUpdate(clockIncrementSize);
+                    }
+                }
+                this.batchRecorder.iterationCompleted(i + 1, this.workbenchPartitions.get(partition));
+                this.workbenchProgress.set(partition, i);
+            }
+            this.workbenchProgress.set(partition, Long.MAX_VALUE);
+        } catch (Throwable t){
+            this.failure = t;
+            this.workbenchProgress.set(partition, Long.MAX_VALUE);
+        }
+    }
+
+    private void awaitInspectorSafeIteration(long iteration){
+        int spins = 0;
+        while (this.inspectorSafeIteration.get() < iteration) {
+            spins = this.backOff(spins);
+        }
+    }
+
+    private void awaitWorkbenchProgress(int partition, long iteration){
+        int spins = 0;
+        while (this.workbenchProgress.get(partition) < iteration) {
+            spins = this.backOff(spins);
+        }
+    }
+
+    private int backOff(int spins){
+        if (this.failure != null) {
+            throw new IllegalStateException("Another logical process failed");
+        }
+        if (spins < 100) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        return spins + 1;
+    }
+
+    private static class PlacementMessage {
+        private final long iteration;                                                   //Clock iteration in which the component was placed
+        private final WorkBench workBench;
+        private final Component component;
+
+        PlacementMessage(long iteration, WorkBench workBench, Component component){
+            this.iteration = iteration;
+            this.workBench = workBench;
+            this.component = component;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package rare;
+
+import entities.Entity;
+import globals.EntityState;
+import globals.EntityType;
+
+import java.util.ArrayList;
+
+/**
+ * Every workbench is BLOCKED at once, waiting for components.
+ */
+public class AllWorkbenchesStarved implements RareEvent {
+
+    @Override
+    public String getDescription(){
+        return "All workbenches starved";
+    }
+
+    @Override
+    public boolean isActive(ArrayList<Entity> entities){
+        for (Entity entity : entities){
+            if (entity.getEntityType() == EntityType.WORKBENCH && entity.getState() != EntityState.BLOCKED) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,283 @@
+package rare;
+
+import entities.Entity;
+import globals.EntityState;
+import globals.Ticks;
+import simulation.Configuration;
+import simulation.Replication;
+import statistics.Calculator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Estimates the probability that an episode of a rare event lasts longer than a threshold with fixed effort multilevel
+ * splitting, which needs far less simulated time than waiting for the event in a crude run.
+ *
+ * The episode length is split into numLevels equally spaced levels. A base run collects the states in which episodes
+ * start; at each level, trialsPerLevel copies of the states that reached the previous level are continued until the
+ * episode either ends or reaches the next level. The probability is the product of the fractions reaching each level.
+ * Copies are made by serializing the entities, and each copy's unused service times, the rest of its services in
+ * progress (exponential, so memoryless) and its Inspector component choices are resampled so that copies of the same
+ * state follow independent paths from the first clock update. Repeating the estimate with independent
+ * seeds gives the confidence interval.
+ */
+public class FixedEffortSplitting {
+    private static final int SERVICE_TIMES_PER_RESAMPLE = 200;                          //Service times per stream after a resample, far more than any entity uses in an hour
+    private static final double RESAMPLE_INTERVAL_HOURS = 1.0;                          //How often the base run resamples its service times and discards history, keeping its copies small
+
+    private Configuration configuration;
+    private RareEvent rareEvent;
+    private double thresholdMinutes;                                                    //Episode length that makes the event rare
+    private int numLevels;                                                              //Intermediate levels, evenly spaced up to the threshold
+    private int trialsPerLevel;                                                         //Copies continued from each level (fixed effort)
+    private long clockIncrementSize;
+    private ArrayList<Double> estimates;                                                //Estimated probability from each repetition
+    private ArrayList<double[]> levelProbabilities;                                     //Fraction of trials reaching each level, for each repetition
+    private long crudeEpisodes;                                                         //Episodes seen by the base runs
+    private long crudeExceedances;                                                      //Episodes seen by the base runs that exceeded the threshold
+    private double crudeHours;                                                          //Simulated length of the base runs
+
+    public FixedEffortSplitting(Configuration configuration, RareEvent rareEvent, double thresholdMinutes, int numLevels, int trialsPerLevel){
+        this.configuration = configuration;
+        this.rareEvent = rareEvent;
+        this.thresholdMinutes = thresholdMinutes;
+        this.numLevels = numLevels;
+        this.trialsPerLevel = trialsPerLevel;
+        this.clockIncrementSize = Ticks.fromSeconds(configuration.getClockIncrementSize());
+        this.estimates = new ArrayList<Double>();
+        this.levelProbabilities = new ArrayList<double[]>();
+    }
+
+    /**
+     * Runs independent repetitions of the splitting estimate. Repetition r uses seed configuration seed + r, or a random
+     * seed if the configuration is unseeded.
+     *
+     * @param repetitions
+     */
+    public void run(int repetitions){
+        for (int r = 1; r <= repetitions; r++){
+            long seed = this.configuration.getSeed() == null ? new Random().nextLong() : this.configuration.getSeed() + r;
+            this.estimate(seed);
+        }
+    }
+
+    /**
+     * Runs one splitting estimate. Nothing is recorded if the base run sees no episodes.
+     *
+     * @param seed
+     */
+    private void estimate(long seed){
+        Random random = new Random(Replication.streamSeed(seed, 0));
+        ArrayList<Snapshot> reached = this.collectEpisodeStarts(seed, random);
+        if (reached.isEmpty()) {
+            return;
+        }
+
+        double[] probabilities = new double[this.numLevels];
+        double probability = 1.0;
+        for (int k = 1; k <= this.numLevels; k++){
+            long level = Ticks.fromSeconds(this.thresholdMinutes * 60 * k / this.numLevels);
+            ArrayList<Snapshot> next = new ArrayList<Snapshot>();
+            for (int trial = 0; trial < this.trialsPerLevel; trial++){
+                Snapshot result = this.advance(reached.get(trial % reached.size()), level, random);
+                if (result != null) {
+                    next.add(result);
+                }
+            }
+            probabilities[k - 1] = (double) next.size() / this.trialsPerLevel;
+            probability *= probabilities[k - 1];
+            if (next.isEmpty()) {
+                break;
+            }
+            reached = next;
+        }
+        this.estimates.add(probability);
+        this.levelProbabilities.add(probabilities);
+    }
+
+    /**
+     * Simulates from the start of the replication and copies the state at the start of each episode, until
+     * trialsPerLevel episodes have started or MAX_REPLICATION_LENGTH_HOURS has been reached. Also counts episodes
+     * exceeding the threshold, for a crude estimate.
+     *
+     * @param seed
+     * @param random
+     * @return
+     */
+    private ArrayList<Snapshot> collectEpisodeStarts(long seed, Random random){
+        ArrayList<Entity> entities = Replication.init(this.configuration, seed);
+        for (Entity entity : entities){
+            entity.resampleServiceTimes(SERVICE_TIMES_PER_RESAMPLE, random);
+        }
+        long resampleIterations = Math.max(1, Ticks.fromHours(RESAMPLE_INTERVAL_HOURS) / this.clockIncrementSize);
+        long maxIterations = Ticks.fromHours(this.configuration.getMaxReplicationLengthHours()) / this.clockIncrementSize;
+        long threshold = Ticks.fromSeconds(this.thresholdMinutes * 60);
+
+        ArrayList<Snapshot> episodeStarts = new ArrayList<Snapshot>();
+        boolean wasActive = false;
+        long episodeLength = 0;
+        boolean exceedanceCounted = false;
+        long iteration = 0;
+        while (episodeStarts.size() < this.trialsPerLevel && iteration < maxIterations) {
+            this.step(entities);
+            iteration ++;
+            if (iteration % resampleIterations == 0) {
+                for (Entity entity : entities){
+                    entity.discardHistory();
+                    entity.resampleServiceTimes(SERVICE_TIMES_PER_RESAMPLE, random);
+                }
+            }
+
+            boolean active = this.rareEvent.isActive(entities);
+            if (active && !wasActive) {
+                episodeStarts.add(new Snapshot(copy(entities), 0));
+                episodeLength = 0;
+                exceedanceCounted = false;
+                this.crudeEpisodes ++;
+            } else if (active) {
+                episodeLength += this.clockIncrementSize;
+                //The threshold need not be a multiple of the clock increment, count the first update at or past it
+                if (!exceedanceCounted && episodeLength >= threshold) {
+                    this.crudeExceedances ++;
+                    exceedanceCounted = true;
+                }
+            }
+            wasActive = active;
+        }
+        this.crudeHours += Ticks.toHours(iteration * this.clockIncrementSize);
+        return episodeStarts;
+    }
+
+    /**
+     * Continues a copy of a snapshot until its episode ends (returns null) or reaches the given length.
+     *
+     * @param snapshot
+     * @param level episode length to reach (ticks)
+     * @param random
+     * @return
+     */
+    private Snapshot advance(Snapshot snapshot, long level, Random random){
+        ArrayList<Entity> entities = restore(snapshot.state);
+        for (Entity entity : entities){
+            entity.resampleServiceTimes(SERVICE_TIMES_PER_RESAMPLE, random);
+        }
+        long episodeLength = snapshot.episodeLength;
+        while (episodeLength < level) {
+            this.step(entities);
+            if (!this.rareEvent.isActive(entities)) {
+                return null;
+            }
+            episodeLength += this.clockIncrementSize;
+        }
+        return new Snapshot(copy(entities), episodeLength);
+    }
+
+    /**
+     * Runs one clock iteration, in the same entity order as Replication.run().
+     *
+     * @param entities
+     */
+    private void step(ArrayList<Entity> entities){
+        for (Entity entity : entities){
+            if (entity.getState() == EntityState.DONE) {
+                throw new IllegalStateException(String.format("%s ran out of service times", entity.getName()));
+            }
+            entity.clockUpdate(this.clockIncrementSize);
+        }
+    }
+
+    /**
+     * Copies the state of a replication's entities, to be restored any number of times.
+     *
+     * @param entities
+     * @return
+     */
+    public static byte[] copy(ArrayList<Entity> entities){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(entities);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e){
+            throw new RuntimeException("Unable to copy replication state", e);
+        }
+    }
+
+    /**
+     * Restores a copy of the entities made by copy().
+     *
+     * @param state
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static ArrayList<Entity> restore(byte[] state){
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state));
+            return (ArrayList<Entity>) in.readObject();
+        } catch (IOException | ClassNotFoundException e){
+            throw new RuntimeException("Unable to restore replication state", e);
+        }
+    }
+
+    /**
+     * Mean probability over the repetitions that saw at least one episode.
+     *
+     * @return
+     */
+    public double getProbability(){
+        return this.estimates.isEmpty() ? Double.NaN : Calculator.mean(this.estimates);
+    }
+
+    /**
+     * Half width of the 95% confidence interval of the probability.
+     *
+     * @return
+     */
+    public double getHalfWidth(){
+        return Calculator.confidenceHalfWidth95(this.estimates);
+    }
+
+    public String produceReport(){
+        StringBuilder result = new StringBuilder(String.format("[%s] longer than %.1f mins (fixed effort splitting, %d levels, %d trials per level, %d repetitions)", this.rareEvent.getDescription(), this.thresholdMinutes, this.numLevels, this.trialsPerLevel, this.estimates.size()));
+        if (this.estimates.isEmpty()) {
+            result.append(String.format("\n\t No episodes in %.1f hrs", this.crudeHours));
+            return result.toString();
+        }
+        double probability = this.getProbability();
+        double halfWidth = this.getHalfWidth();
+        if (probability > 0) {
+            result.append(String.format("\n\t P(episode > %.1f mins): %e +/- %e (relative error %.1f%%)", this.thresholdMinutes, probability, halfWidth, halfWidth * 100 / probability));
+        } else {
+            result.append(String.format("\n\t P(episode > %.1f mins): no trial reached the threshold, add levels or trials to resolve it", this.thresholdMinutes));
+        }
+        result.append("\n\t Fraction reaching each level:");
+        for (int k = 0; k < this.numLevels; k++){
+            double sum = 0.0;
+            for (double[] probabilities : this.levelProbabilities){
+                sum += probabilities[k];
+            }
+            result.append(String.format(" %.3f", sum / this.levelProbabilities.size()));
+        }
+        double episodesPerHour = this.crudeEpisodes / this.crudeHours;
+        result.append(String.format("\n\t Episodes/hr: %f  Rare events/hr: %e", episodesPerHour, episodesPerHour * probability));
+        result.append(String.format("\n\t Crude estimate: %d of %d episodes in %.1f hrs", this.crudeExceedances, this.crudeEpisodes, this.crudeHours));
+        return result.toString();
+    }
+
+    private static class Snapshot {
+        private final byte[] state;                                                     //Serialized entities
+        private final long episodeLength;                                               //Length of the episode in progress (ticks)
+
+        Snapshot(byte[] state, long episodeLength){
+            this.state = state;
+            this.episodeLength = episodeLength;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package rare;
+
+import entities.Entity;
+import globals.EntityState;
+
+import java.util.ArrayList;
+
+/**
+ * An inspector is BLOCKED, holding an inspected component that no workbench has room for.
+ */
+public class InspectorBlocked implements RareEvent {
+    private String inspectorName;
+
+    public InspectorBlocked(String inspectorName){
+        this.inspectorName = inspectorName;
+    }
+
+    @Override
+    public String getDescription(){
+        return String.format("%s BLOCKED", this.inspectorName);
+    }
+
+    @Override
+    public boolean isActive(ArrayList<Entity> entities){
+        for (Entity entity : entities){
+            if (entity.getName().equals(this.inspectorName)) {
+                return entity.getState() == EntityState.BLOCKED;
+            }
+        }
+        throw new IllegalArgumentException(String.format("No inspector named %s", this.inspectorName));
+    }
+}
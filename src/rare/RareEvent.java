@@ -0,0 +1,15 @@
+package rare;
+
+import entities.Entity;
+
+import java.util.ArrayList;
+
+/**
+ * A condition on the state of the entities. An episode is a maximal stretch of clock iterations during which the
+ * condition holds, and the rare event is an episode lasting longer than a threshold.
+ */
+public interface RareEvent {
+    String getDescription();
+
+    boolean isActive(ArrayList<Entity> entities);
+}
@@ -0,0 +1,146 @@
+package results;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads a file written by ColumnarResultsWriter. Only the footer is read when the file is opened; each block is memory
+ * mapped when it is requested and its columns are read in place, so a query touches only the columns it uses.
+ */
+public class ColumnarResultsReader implements Closeable {
+    public static final int ROW_BYTES = 4 + 4 + 8 + 2 + 2 + 8;                          //Bytes per row over all columns
+    private static final int TRAILER_BYTES = 12;
+
+    private FileChannel channel;
+    private ArrayList<String> scenarios;
+    private ArrayList<String> entities;
+    private ArrayList<String> metrics;
+    private long[] blockOffsets;
+    private int[] blockRows;
+
+    public ColumnarResultsReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = this.channel.size();
+            if (size < 8 + TRAILER_BYTES) {
+                throw new IOException(String.format("%s is not a results file", file));
+            }
+            MappedByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+            MappedByteBuffer trailer = this.channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_BYTES, TRAILER_BYTES);
+            long footerOffset = trailer.getLong();
+            if (header.getInt() != ColumnarResultsWriter.MAGIC || trailer.getInt() != ColumnarResultsWriter.MAGIC || footerOffset < 8 || footerOffset > size - TRAILER_BYTES) {
+                throw new IOException(String.format("%s is not a complete results file", file));
+            }
+            if (header.getInt() != ColumnarResultsWriter.FORMAT_VERSION) {
+                throw new IOException(String.format("%s has an unsupported format version", file));
+            }
+
+            MappedByteBuffer footer = this.channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, size - TRAILER_BYTES - footerOffset);
+            this.scenarios = readDictionary(footer);
+            this.entities = readDictionary(footer);
+            this.metrics = readDictionary(footer);
+            int numBlocks = footer.getInt();
+            this.blockOffsets = new long[numBlocks];
+            this.blockRows = new int[numBlocks];
+            for (int b = 0; b < numBlocks; b++){
+                this.blockOffsets[b] = footer.getLong();
+                this.blockRows[b] = footer.getInt();
+            }
+        } catch (IOException | RuntimeException e){
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    private static ArrayList<String> readDictionary(MappedByteBuffer footer){
+        int count = footer.getInt();
+        ArrayList<String> names = new ArrayList<String>();
+        for (int i = 0; i < count; i++){
+            byte[] bytes = new byte[footer.getInt()];
+            footer.get(bytes);
+            names.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    public int getBlockCount(){ return this.blockOffsets.length; }
+
+    /**
+     * Total number of rows in the file.
+     *
+     * @return
+     */
+    public long getRowCount(){
+        long rows = 0;
+        for (int blockRows : this.blockRows){
+            rows += blockRows;
+        }
+        return rows;
+    }
+
+    public ArrayList<String> getScenarios(){ return this.scenarios; }
+
+    public ArrayList<String> getEntities(){ return this.entities; }
+
+    public ArrayList<String> getMetrics(){ return this.metrics; }
+
+    /**
+     * Maps a block of rows.
+     *
+     * @param b
+     * @return
+     * @throws IOException
+     */
+    public Block getBlock(int b) throws IOException {
+        MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.blockOffsets[b], 4 + (long) this.blockRows[b] * ROW_BYTES);
+        return new Block(buffer, this.blockRows[b]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Column accessors for a mapped block. Dictionary columns return ids into getScenarios(), getEntities() and getMetrics().
+     */
+    public static class Block {
+        private final MappedByteBuffer buffer;
+        private final int rows;
+        private final int replicationOffset;                                            //Byte offset of each column within the block
+        private final int seedOffset;
+        private final int entityOffset;
+        private final int metricOffset;
+        private final int valueOffset;
+
+        Block(MappedByteBuffer buffer, int rows){
+            this.buffer = buffer;
+            this.rows = rows;
+            this.replicationOffset = 4 + 4 * rows;
+            this.seedOffset = this.replicationOffset + 4 * rows;
+            this.entityOffset = this.seedOffset + 8 * rows;
+            this.metricOffset = this.entityOffset + 2 * rows;
+            this.valueOffset = this.metricOffset + 2 * rows;
+        }
+
+        public int getRows(){ return this.rows; }
+
+        public int getScenario(int row){ return this.buffer.getInt(4 + 4 * row); }
+
+        public int getReplication(int row){ return this.buffer.getInt(this.replicationOffset + 4 * row); }
+
+        public long getSeed(int row){ return this.buffer.getLong(this.seedOffset + 8 * row); }
+
+        public int getEntity(int row){ return this.buffer.getShort(this.entityOffset + 2 * row); }
+
+        public int getMetric(int row){ return this.buffer.getShort(this.metricOffset + 2 * row); }
+
+        public double getValue(int row){ return this.buffer.getDouble(this.valueOffset + 8 * row); }
+    }
+}
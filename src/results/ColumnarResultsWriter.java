@@ -0,0 +1,257 @@
+package results;
+
+import globals.ComponentName;
+import globals.EntityState;
+import globals.Ticks;
+import simulation.EntityResult;
+import simulation.ReplicationResult;
+import statistics.QuantileSketch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes replication results to a compact columnar binary file, one row per (scenario, replication, seed, entity,
+ * metric, value). Rows are gathered into blocks of BLOCK_ROWS and each block is written column by column through a
+ * buffered file channel. Scenario, entity and metric names are stored once, in dictionaries in the footer.
+ *
+ * File layout (big endian):
+ *      header:  MAGIC, FORMAT_VERSION
+ *      blocks:  int rowCount, int[] scenario, int[] replication, long[] seed, short[] entity, short[] metric, double[] value
+ *      footer:  scenario, entity and metric dictionaries (int count, then length prefixed UTF-8 strings),
+ *               int blockCount, then long offset and int rowCount of each block
+ *      trailer: long footer offset, MAGIC
+ * Unseeded replications are written with seed Long.MIN_VALUE. The writer is safe to share between threads.
+ */
+public class ColumnarResultsWriter implements Closeable {
+    public static final int MAGIC = 0x53494D43;                                         //"SIMC"
+    public static final int FORMAT_VERSION = 1;
+    public static final int BLOCK_ROWS = 65536;                                         //Rows per block, each block is mapped on its own when read
+    public static final long NO_SEED = Long.MIN_VALUE;                                  //Seed column value of an unseeded replication
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private FileChannel channel;
+    private ByteBuffer buffer;                                                          //Bytes waiting to be written to the channel
+    private long position;                                                              //File offset of the next byte put in the buffer
+    private ArrayList<String> scenarios;
+    private ArrayList<String> entities;
+    private ArrayList<String> metrics;
+    private HashMap<String, Integer> scenarioIds;
+    private HashMap<String, Integer> entityIds;
+    private HashMap<String, Integer> metricIds;
+    private ArrayList<long[]> blocks;                                                   //{offset, rowCount} of each written block
+    private int rows;                                                                   //Rows in the block being gathered
+    private int[] scenarioColumn;
+    private int[] replicationColumn;
+    private long[] seedColumn;
+    private short[] entityColumn;
+    private short[] metricColumn;
+    private double[] valueColumn;
+
+    public ColumnarResultsWriter(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        this.position = 0;
+        this.scenarios = new ArrayList<String>();
+        this.entities = new ArrayList<String>();
+        this.metrics = new ArrayList<String>();
+        this.scenarioIds = new HashMap<String, Integer>();
+        this.entityIds = new HashMap<String, Integer>();
+        this.metricIds = new HashMap<String, Integer>();
+        this.blocks = new ArrayList<long[]>();
+        this.scenarioColumn = new int[BLOCK_ROWS];
+        this.replicationColumn = new int[BLOCK_ROWS];
+        this.seedColumn = new long[BLOCK_ROWS];
+        this.entityColumn = new short[BLOCK_ROWS];
+        this.metricColumn = new short[BLOCK_ROWS];
+        this.valueColumn = new double[BLOCK_ROWS];
+        this.ensureSpace(8);
+        this.buffer.putInt(MAGIC);
+        this.buffer.putInt(FORMAT_VERSION);
+        this.position += 8;
+    }
+
+    /**
+     * Writes every metric of every entity of a replication: the quantity of interest, services completed, the time
+     * spent in each state (seconds) and P50/P95/P99 of the component system times at the entity (minutes).
+     *
+     * @param scenario
+     * @param replication
+     * @param result
+     * @throws IOException
+     */
+    public synchronized void write(String scenario, int replication, ReplicationResult result) throws IOException {
+        long seed = result.getSeed() == null ? NO_SEED : result.getSeed();
+        for (EntityResult entityResult : result.getEntityResults()){
+            String entity = entityResult.getName();
+            this.write(scenario, replication, seed, entity, "quantityOfInterest", entityResult.getQuantityOfInterest());
+            this.write(scenario, replication, seed, entity, "servicesCompleted", entityResult.getServicesCompleted());
+            for (Map.Entry<EntityState, Double> stateTime : entityResult.getStateTimes().entrySet()){
+                this.write(scenario, replication, seed, entity, stateTime.getKey() + "Time(secs)", stateTime.getValue());
+            }
+            for (Map.Entry<ComponentName, QuantileSketch> sketch : entityResult.getSystemTimeSketches().entrySet()){
+                this.write(scenario, replication, seed, entity, "systemTimeP50(mins)[" + sketch.getKey() + "]", Ticks.toMinutes(sketch.getValue().getQuantile(0.50)));
+                this.write(scenario, replication, seed, entity, "systemTimeP95(mins)[" + sketch.getKey() + "]", Ticks.toMinutes(sketch.getValue().getQuantile(0.95)));
+                this.write(scenario, replication, seed, entity, "systemTimeP99(mins)[" + sketch.getKey() + "]", Ticks.toMinutes(sketch.getValue().getQuantile(0.99)));
+            }
+        }
+    }
+
+    /**
+     * Writes a single row.
+     *
+     * @param scenario
+     * @param replication
+     * @param seed
+     * @param entity
+     * @param metric
+     * @param value
+     * @throws IOException
+     */
+    public synchronized void write(String scenario, int replication, long seed, String entity, String metric, double value) throws IOException {
+        this.scenarioColumn[this.rows] = id(scenario, this.scenarios, this.scenarioIds, Integer.MAX_VALUE);
+        this.replicationColumn[this.rows] = replication;
+        this.seedColumn[this.rows] = seed;
+        this.entityColumn[this.rows] = (short) id(entity, this.entities, this.entityIds, Short.MAX_VALUE);
+        this.metricColumn[this.rows] = (short) id(metric, this.metrics, this.metricIds, Short.MAX_VALUE);
+        this.valueColumn[this.rows] = value;
+        this.rows ++;
+        if (this.rows == BLOCK_ROWS) {
+            this.writeBlock();
+        }
+    }
+
+    /**
+     * Returns the dictionary id of a name, adding it if it is new.
+     *
+     * @param name
+     * @param names
+     * @param ids
+     * @param maxId
+     * @return
+     */
+    private static int id(String name, ArrayList<String> names, HashMap<String, Integer> ids, int maxId){
+        Integer id = ids.get(name);
+        if (id == null) {
+            if (names.size() > maxId) {
+                throw new IllegalStateException(String.format("Too many distinct names to add %s", name));
+            }
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    private void writeBlock() throws IOException {
+        if (this.rows == 0) {
+            return;
+        }
+        this.blocks.add(new long[]{this.position, this.rows});
+        this.ensureSpace(4);
+        this.buffer.putInt(this.rows);
+        for (int i = 0; i < this.rows; i++){
+            this.ensureSpace(4);
+            this.buffer.putInt(this.scenarioColumn[i]);
+        }
+        for (int i = 0; i < this.rows; i++){
+            this.ensureSpace(4);
+            this.buffer.putInt(this.replicationColumn[i]);
+        }
+        for (int i = 0; i < this.rows; i++){
+            this.ensureSpace(8);
+            this.buffer.putLong(this.seedColumn[i]);
+        }
+        for (int i = 0; i < this.rows; i++){
+            this.ensureSpace(2);
+            this.buffer.putShort(this.entityColumn[i]);
+        }
+        for (int i = 0; i < this.rows; i++){
+            this.ensureSpace(2);
+            this.buffer.putShort(this.metricColumn[i]);
+        }
+        for (int i = 0; i < this.rows; i++){
+            this.ensureSpace(8);
+            this.buffer.putDouble(this.valueColumn[i]);
+        }
+        this.position += 4 + (long) this.rows * ColumnarResultsReader.ROW_BYTES;
+        this.rows = 0;
+    }
+
+    private void writeDictionary(ArrayList<String> names) throws IOException {
+        this.ensureSpace(4);
+        this.buffer.putInt(names.size());
+        this.position += 4;
+        for (String name : names){
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            this.ensureSpace(4);
+            this.buffer.putInt(bytes.length);
+            for (byte b : bytes){
+                this.ensureSpace(1);
+                this.buffer.put(b);
+            }
+            this.position += 4 + bytes.length;
+        }
+    }
+
+    /**
+     * Drains the buffer to the channel when fewer than the given number of bytes are free.
+     *
+     * @param bytes
+     * @throws IOException
+     */
+    private void ensureSpace(int bytes) throws IOException {
+        if (this.buffer.remaining() < bytes) {
+            this.drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Writes the last block and the footer, and closes the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.channel == null) {
+            return;
+        }
+        try {
+            this.writeBlock();
+            long footerOffset = this.position;
+            this.writeDictionary(this.scenarios);
+            this.writeDictionary(this.entities);
+            this.writeDictionary(this.metrics);
+            this.ensureSpace(4);
+            this.buffer.putInt(this.blocks.size());
+            for (long[] block : this.blocks){
+                this.ensureSpace(12);
+                this.buffer.putLong(block[0]);
+                this.buffer.putInt((int) block[1]);
+            }
+            this.ensureSpace(12);
+            this.buffer.putLong(footerOffset);
+            this.buffer.putInt(MAGIC);
+            this.drain();
+        } finally {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package results;
+
+import statistics.Calculator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Summarizes a results file by scenario, entity and metric: the number of replications, mean, standard deviation and
+ * the half width of the 95% confidence interval of the mean. Blocks are scanned one at a time, keeping only a running
+ * mean and sum of squares per group, so the file is never loaded as a whole.
+ */
+public class ResultsQuery {
+    private ColumnarResultsReader reader;
+    private String metricFilter;                                                        //Only metrics containing this text are summarized, null for all
+    private HashMap<Long, double[]> summaries;                                          //{count, mean, sum of squared deviations} by group key
+    private ArrayList<Long> groups;                                                     //Group keys in the order first seen
+
+    public ResultsQuery(ColumnarResultsReader reader, String metricFilter){
+        this.reader = reader;
+        this.metricFilter = metricFilter;
+        this.summaries = new HashMap<Long, double[]>();
+        this.groups = new ArrayList<Long>();
+    }
+
+    /**
+     * Scans the file, updating each group's summary with Welford's method.
+     *
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        ArrayList<String> metrics = this.reader.getMetrics();
+        boolean[] selected = new boolean[metrics.size()];
+        for (int m = 0; m < metrics.size(); m++){
+            selected[m] = this.metricFilter == null || metrics.get(m).contains(this.metricFilter);
+        }
+        for (int b = 0; b < this.reader.getBlockCount(); b++){
+            ColumnarResultsReader.Block block = this.reader.getBlock(b);
+            for (int row = 0; row < block.getRows(); row++){
+                int metric = block.getMetric(row);
+                if (!selected[metric]) {
+                    continue;
+                }
+                long key = ((long) block.getScenario(row) << 32) | ((long) block.getEntity(row) << 16) | metric;
+                double[] summary = this.summaries.get(key);
+                if (summary == null) {
+                    summary = new double[3];
+                    this.summaries.put(key, summary);
+                    this.groups.add(key);
+                }
+                double value = block.getValue(row);
+                summary[0] ++;
+                double delta = value - summary[1];
+                summary[1] += delta / summary[0];
+                summary[2] += delta * (value - summary[1]);
+            }
+        }
+    }
+
+    /**
+     * Returns the summary of a group as {count, mean, stdDev, halfWidth}, or null if the file has no such rows.
+     *
+     * @param scenario
+     * @param entity
+     * @param metric
+     * @return
+     */
+    public double[] getSummary(String scenario, String entity, String metric){
+        int scenarioId = this.reader.getScenarios().indexOf(scenario);
+        int entityId = this.reader.getEntities().indexOf(entity);
+        int metricId = this.reader.getMetrics().indexOf(metric);
+        if (scenarioId < 0 || entityId < 0 || metricId < 0) {
+            return null;
+        }
+        double[] summary = this.summaries.get(((long) scenarioId << 32) | ((long) entityId << 16) | metricId);
+        return summary == null ? null : summarize(summary);
+    }
+
+    private static double[] summarize(double[] summary){
+        int count = (int) summary[0];
+        double stdDev = count > 1 ? Math.sqrt(summary[2] / (count - 1)) : Double.NaN;
+        double halfWidth = count > 1 ? Calculator.studentT95(count - 1) * stdDev / Math.sqrt(count) : Double.NaN;
+        return new double[]{count, summary[1], stdDev, halfWidth};
+    }
+
+    public String produceReport(){
+        StringBuilder result = new StringBuilder(String.format("RESULTS SUMMARY (%d rows, 95%% confidence intervals)", this.reader.getRowCount()));
+        int lastScenario = -1;
+        for (Long key : this.groups){
+            int scenario = (int) (key >>> 32);
+            int entity = (int) ((key >>> 16) & 0xFFFF);
+            int metric = (int) (key & 0xFFFF);
+            if (scenario != lastScenario) {
+                result.append(String.format("\n[%s]", this.reader.getScenarios().get(scenario)));
+                lastScenario = scenario;
+            }
+            double[] summary = summarize(this.summaries.get(key));
+            result.append(String.format("\n\t %s %s: %f +/- %f (n=%d, stdDev=%f)", this.reader.getEntities().get(entity), this.reader.getMetrics().get(metric), summary[1], summary[3], (int) summary[0], summary[2]));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Opens a results file and summarizes it.
+     *
+     * @param file
+     * @param metricFilter
+     * @return
+     * @throws IOException
+     */
+    public static String summarize(File file, String metricFilter) throws IOException {
+        try (ColumnarResultsReader reader = new ColumnarResultsReader(file)) {
+            ResultsQuery query = new ResultsQuery(reader, metricFilter);
+            query.run();
+            return query.produceReport();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package sensitivity;
+
+import entities.Entity;
+import entities.Inspector;
+import entities.ServiceTimeObserver;
+import entities.WorkBench;
+import globals.ComponentName;
+import globals.EntityType;
+import globals.Lambda;
+import globals.Ticks;
+import simulation.BatchRecorder;
+import simulation.Configuration;
+import simulation.Replication;
+import statistics.Calculator;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+
+/**
+ * Runs a replication and estimates, within that single run, the derivative of each workbench's throughput and each
+ * inspector's idle % with respect to every exponential service rate (likelihood ratio / score function method).
+ *
+ * Infinitesimal perturbation analysis does not suit these outputs: the number of assembled products is piecewise
+ * constant in the service times, so its pathwise derivative is zero almost everywhere. Instead, every service time x
+ * drawn from rate lambda contributes the score d/dlambda log(lambda e^(-lambda x)) = 1/lambda - x (per minute). The run is
+ * split into batches after a warm-up; each batch b gives
+ *      G_b = (L_b - mean(L)) * (S_b + S_(b-1))
+ * where L_b is the output measured over the batch and S_b the score of the service times started in it. Including the
+ * previous batch's score captures the effect of service times that carry over into the next batch; effects that last
+ * longer than one batch are truncated. Since G_b and G_(b+1) share the score S_b, confidence intervals are built from
+ * the means of pairs of G_b separated by a discarded pair, so that no two of the means share a batch score.
+ */
+public class GradientReplication extends Replication implements ServiceTimeObserver {
+    private static final int SCORE_WINDOW_BATCHES = 2;                                  //Batches whose scores are attributed to a batch's output (its own and the previous one)
+
+    private double batchLengthHours;                                                    //Simulated length of each batch
+    private int warmupBatches;                                                          //Leading batches excluded from the estimates
+    private ArrayList<String> parameterNames;                                           //Name of each service rate parameter
+    private ArrayList<Double> parameterRates;                                           //Value of each service rate parameter (per minute)
+    private HashMap<Entity, EnumMap<ComponentName, Integer>> inspectorParameters;       //Parameter index of each inspector component
+    private HashMap<Entity, Integer> workbenchParameters;                               //Parameter index of each workbench
+    private ArrayList<Entity> outputEntities;                                           //Entities whose quantity of interest is differentiated
+    private double[] currentScores;                                                     //Score of the batch in progress, per parameter
+    private BatchRecorder outputRecorder;                                               //Quantity of interest of each entity over each batch
+    private ArrayList<double[]> batchScores;                                            //Score of each completed batch, per parameter
+
+    public GradientReplication(Configuration configuration, int replicationNumber, double batchLengthHours, int warmupBatches){
+        super(configuration, replicationNumber);
+        this.batchLengthHours = batchLengthHours;
+        this.warmupBatches = warmupBatches;
+    }
+
+    @Override
+    protected void entitiesInitialized(){
+        this.outputRecorder = new BatchRecorder(this.entities, Ticks.fromSeconds(this.configuration.getClockIncrementSize()), 0.0, this.batchLengthHours);
+        this.parameterNames = new ArrayList<String>();
+        this.parameterRates = new ArrayList<Double>();
+        this.inspectorParameters = new HashMap<Entity, EnumMap<ComponentName, Integer>>();
+        this.workbenchParameters = new HashMap<Entity, Integer>();
+        this.outputEntities = new ArrayList<Entity>();
+        this.batchScores = new ArrayList<double[]>();
+
+        for (Entity entity : this.entities){
+            if (entity.getEntityType() == EntityType.INSPECTOR) {
+                Inspector inspector = (Inspector) entity;
+                EnumMap<ComponentName, Integer> parameters = new EnumMap<ComponentName, Integer>(ComponentName.class);
+                for (ComponentName componentName : inspector.getInspectableComponents()){
+                    parameters.put(componentName, this.addParameter(inspector.getName() + " " + componentName, inspector.getComponentServiceRate(componentName)));
+                }
+                this.inspectorParameters.put(inspector, parameters);
+            } else {
+                WorkBench workbench = (WorkBench) entity;
+                this.workbenchParameters.put(workbench, this.addParameter(workbench.getName(), workbench.getServiceRate()));
+            }
+            entity.setServiceTimeObserver(this);
+            this.outputEntities.add(entity);
+        }
+        this.currentScores = new double[this.parameterNames.size()];
+    }
+
+    /**
+     * Registers a service rate parameter, named after the matching Lambda when there is one.
+     *
+     * @param fallbackName
+     * @param rate
+     * @return index of the parameter
+     */
+    private int addParameter(String fallbackName, Double rate){
+        String name = fallbackName;
+        for (Lambda lambda : Lambda.values()){
+            if (lambda.value.equals(rate)) {
+                name = lambda.name();
+            }
+        }
+        this.parameterNames.add(name);
+        this.parameterRates.add(rate);
+        return this.parameterNames.size() - 1;
+    }
+
+    @Override
+    public void serviceStarted(Entity entity, ComponentName componentName, long serviceTime){
+        int parameter = componentName == null ? this.workbenchParameters.get(entity) : this.inspectorParameters.get(entity).get(componentName);
+        this.currentScores[parameter] += 1 / this.parameterRates.get(parameter) - Ticks.toMinutes(serviceTime);
+    }
+
+    @Override
+    protected void iterationCompleted(){
+        if (this.outputRecorder.iterationCompleted(this.clockIterations, this.entities)) {
+            this.batchScores.add(this.currentScores);
+            this.currentScores = new double[this.parameterNames.size()];
+        }
+    }
+
+    /**
+     * Number of completed batches used by the estimates.
+     *
+     * @return
+     */
+    public int getNumberOfBatches(){
+        return Math.max(0, this.batchScores.size() - this.warmupBatches);
+    }
+
+    /**
+     * Per batch gradient terms G_b of an output with respect to a parameter, for the batches after the warm-up.
+     *
+     * @param output index into the entities
+     * @param parameter
+     * @return
+     */
+    private ArrayList<Double> getGradientTerms(int output, int parameter){
+        ArrayList<Double> batchValues = this.outputRecorder.getBatchValues(this.outputEntities.get(output));
+        ArrayList<Double> outputs = new ArrayList<Double>();
+        for (int b = this.warmupBatches; b < batchValues.size(); b++){
+            outputs.add(batchValues.get(b));
+        }
+        double meanOutput = Calculator.mean(outputs);
+        ArrayList<Double> terms = new ArrayList<Double>();
+        for (int b = this.warmupBatches; b < batchValues.size(); b++){
+            double score = 0.0;
+            for (int w = 0; w < SCORE_WINDOW_BATCHES && b - w >= 0; w++){
+                score += this.batchScores.get(b - w)[parameter];
+            }
+            terms.add((batchValues.get(b) - meanOutput) * score);
+        }
+        return terms;
+    }
+
+    /**
+     * Averages groups of SCORE_WINDOW_BATCHES consecutive gradient terms, leaving a gap of SCORE_WINDOW_BATCHES terms
+     * between groups. Terms up to SCORE_WINDOW_BATCHES - 1 apart share a batch score, so without the gap adjacent groups
+     * would be correlated and the confidence interval too narrow; the terms in the gaps still count towards the gradient.
+     *
+     * @param terms
+     * @return
+     */
+    private static ArrayList<Double> groupTerms(ArrayList<Double> terms){
+        ArrayList<Double> groups = new ArrayList<Double>();
+        for (int g = 0; g + SCORE_WINDOW_BATCHES <= terms.size(); g += 2 * SCORE_WINDOW_BATCHES){
+            double sum = 0.0;
+            for (int i = g; i < g + SCORE_WINDOW_BATCHES; i++){
+                sum += terms.get(i);
+            }
+            groups.add(sum / SCORE_WINDOW_BATCHES);
+        }
+        return groups;
+    }
+
+    /**
+     * Estimated derivative of an entity's quantity of interest (throughput per hour or idle %) with respect to a
+     * service rate (per minute), and the half width of its 95% confidence interval.
+     *
+     * @param entityName
+     * @param parameterName
+     * @return {gradient, halfWidth}
+     */
+    public double[] getGradient(String entityName, String parameterName){
+        int output = -1;
+        for (int i = 0; i < this.outputEntities.size(); i++){
+            if (this.outputEntities.get(i).getName().equals(entityName)) {
+                output = i;
+            }
+        }
+        int parameter = this.parameterNames.indexOf(parameterName);
+        if (output < 0 || parameter < 0) {
+            throw new IllegalArgumentException(String.format("Unknown entity %s or parameter %s", entityName, parameterName));
+        }
+        return this.getGradient(output, parameter);
+    }
+
+    private double[] getGradient(int output, int parameter){
+        ArrayList<Double> terms = this.getGradientTerms(output, parameter);
+        ArrayList<Double> groups = groupTerms(terms);
+        if (groups.isEmpty()) {
+            return new double[]{Double.NaN, Double.NaN};
+        }
+        return new double[]{Calculator.mean(terms), Calculator.confidenceHalfWidth95(groups)};
+    }
+
+    public ArrayList<String> getParameterNames(){ return this.parameterNames; }
+
+    /**
+     * Reports every gradient with its 95% confidence interval, and the elasticity (% change of the output per % change
+     * of the rate) at the estimated gradient.
+     *
+     * @return
+     */
+    public String produceReport(){
+        StringBuilder result = new StringBuilder(String.format("SENSITIVITY GRADIENTS (likelihood ratio, %d batches of %.1f hrs after %d warm-up)", this.getNumberOfBatches(), this.batchLengthHours, this.warmupBatches));
+        for (int i = 0; i < this.outputEntities.size(); i++){
+            Entity entity = this.outputEntities.get(i);
+            String output = entity.getEntityType() == EntityType.INSPECTOR ? "Idle %" : "Throughput(AssembledProducts/hr)";
+            result.append(String.format("\n[%s] %s: %f", entity.getName(), output, entity.getQuantityOfInterest()));
+            for (int p = 0; p < this.parameterNames.size(); p++){
+                double[] gradient = this.getGradient(i, p);
+                //Elasticity is relative to the output, so it is undefined when the output is 0 (e.g. an inspector that is never idle)
+                String elasticity = entity.getQuantityOfInterest() == 0 ? "undefined" : String.format("%.3f", gradient[0] * this.parameterRates.get(p) / entity.getQuantityOfInterest());
+                result.append(String.format("\n\t d/d%s(per min): %.4f +/- %.4f  elasticity: %s", this.parameterNames.get(p), gradient[0], gradient[1], elasticity));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,207 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Minimal JSON reader and writer for the simulation service, covering objects, arrays, strings, numbers, booleans and
+ * null. Objects are read as HashMap<String, Object>, arrays as ArrayList<Object> and numbers as Double.
+ */
+public class Json {
+    private String text;
+    private int position;
+
+    private Json(String text){
+        this.text = text;
+        this.position = 0;
+    }
+
+    /**
+     * Parses a JSON document.
+     *
+     * @param text
+     * @return
+     */
+    public static Object parse(String text){
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if (json.position != text.length()) {
+            throw json.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Quotes and escapes a string for output.
+     *
+     * @param value
+     * @return
+     */
+    public static String quote(String value){
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /**
+     * Formats a number for output, non-finite values become null.
+     *
+     * @param value
+     * @return
+     */
+    public static String number(double value){
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    private Object readValue(){
+        this.skipWhitespace();
+        if (this.position >= this.text.length()) {
+            throw this.error("Unexpected end of input");
+        }
+        char c = this.text.charAt(this.position);
+        if (c == '{') {
+            return this.readObject();
+        } else if (c == '[') {
+            return this.readArray();
+        } else if (c == '"') {
+            return this.readString();
+        } else if (this.text.startsWith("true", this.position)) {
+            this.position += 4;
+            return Boolean.TRUE;
+        } else if (this.text.startsWith("false", this.position)) {
+            this.position += 5;
+            return Boolean.FALSE;
+        } else if (this.text.startsWith("null", this.position)) {
+            this.position += 4;
+            return null;
+        }
+        return this.readNumber();
+    }
+
+    private HashMap<String, Object> readObject(){
+        HashMap<String, Object> object = new HashMap<String, Object>();
+        this.position ++;
+        this.skipWhitespace();
+        if (this.peek() == '}') {
+            this.position ++;
+            return object;
+        }
+        while (true) {
+            this.skipWhitespace();
+            if (this.peek() != '"') {
+                throw this.error("Expected a string key");
+            }
+            String key = this.readString();
+            this.skipWhitespace();
+            this.expect(':');
+            object.put(key, this.readValue());
+            this.skipWhitespace();
+            if (this.peek() == ',') {
+                this.position ++;
+            } else {
+                this.expect('}');
+                return object;
+            }
+        }
+    }
+
+    private ArrayList<Object> readArray(){
+        ArrayList<Object> array = new ArrayList<Object>();
+        this.position ++;
+        this.skipWhitespace();
+        if (this.peek() == ']') {
+            this.position ++;
+            return array;
+        }
+        while (true) {
+            array.add(this.readValue());
+            this.skipWhitespace();
+            if (this.peek() == ',') {
+                this.position ++;
+            } else {
+                this.expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String readString(){
+        StringBuilder result = new StringBuilder();
+        this.position ++;
+        while (this.position < this.text.length()) {
+            char c = this.text.charAt(this.position ++);
+            if (c == '"') {
+                return result.toString();
+            } else if (c == '\\') {
+                if (this.position >= this.text.length()) {
+                    break;
+                }
+                char escaped = this.text.charAt(this.position ++);
+                switch (escaped) {
+                    case 'b': result.append('\b'); break;
+                    case 'f': result.append('\f'); break;
+                    case 'n': result.append('\n'); break;
+                    case 'r': result.append('\r'); break;
+                    case 't': result.append('\t'); break;
+                    case 'u':
+                        if (this.position + 4 > this.text.length()) {
+                            throw this.error("Invalid unicode escape");
+                        }
+                        result.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+                        this.position += 4;
+                        break;
+                    default: result.append(escaped);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+        throw this.error("Unterminated string");
+    }
+
+    private Double readNumber(){
+        int start = this.position;
+        while (this.position < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.position)) >= 0) {
+            this.position ++;
+        }
+        try {
+            return Double.parseDouble(this.text.substring(start, this.position));
+        } catch (NumberFormatException e){
+            throw this.error("Invalid value");
+        }
+    }
+
+    private void skipWhitespace(){
+        while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+            this.position ++;
+        }
+    }
+
+    private char peek(){
+        if (this.position >= this.text.length()) {
+            throw this.error("Unexpected end of input");
+        }
+        return this.text.charAt(this.position);
+    }
+
+    private void expect(char c){
+        if (this.peek() != c) {
+            throw this.error(String.format("Expected '%c'", c));
+        }
+        this.position ++;
+    }
+
+    private IllegalArgumentException error(String message){
+        return new IllegalArgumentException(String.format("%s at position %d", message, this.position));
+    }
+}
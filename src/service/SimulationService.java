@@ -0,0 +1,414 @@
+package service;
+
+import cache.ResultCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import simulation.Configuration;
+import simulation.EntityResult;
+import simulation.Replication;
+import simulation.ReplicationResult;
+import simulation.RunControl;
+import statistics.Calculator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long lived simulation service on a localhost HTTP/JSON endpoint, so that what-if queries skip JVM startup and JIT
+ * warm-up. All requests share one warmed-up pool of worker threads:
+ *  - POST /simulate takes a scenario (any Configuration field, a seed and a number of replications, all optional) and
+ *    streams one JSON line per replication as it finishes, then a summary line with 95% confidence intervals;
+ *    optional wall-clock and simulated time budgets (per replication and for the request) stop replications early, and
+ *    their partial results are flagged and left out of the summary;
+ *  - GET /health reports the pool and its counters.
+ * Replications requested by concurrent requests are batched on the shared pool: an identical seeded replication that
+ * is already queued or running is shared rather than run again, and finished ones are served from the result cache.
+ * Requests with budgets run their own replications, which are cancelled if the client disconnects.
+ * Scenario values are checked against the ranges below, so that one request can not tie up the service or exhaust its
+ * memory; anything out of range (or a fraction where an integer is expected) is answered with 400, as is a request whose
+ * replications would step the clock more than MAX_CLOCK_ITERATIONS times in total.
+ */
+public class SimulationService {
+    private static final int WARMUP_REPLICATIONS_PER_WORKER = 2;
+    private static final int WARMUP_NUM_SERVICE_TIMES = 500;
+    private static final Double WARMUP_REPLICATION_LENGTH_HOURS = 20.0;
+    private static final int MAX_REPLICATIONS = 1000;                                   //Per request
+    private static final int MAX_BUFFER_SIZE = 1000;
+    private static final int MAX_NUM_SERVICE_TIMES = 1000000;                           //Per entity, each replication holds them all
+    private static final int MAX_WORKBENCH_SERVERS = 64;                                //Per station, which holds service times for all its servers
+    private static final double MIN_CLOCK_INCREMENT_SIZE = 0.001;                       //Seconds
+    private static final double MAX_REPLICATION_LENGTH_HOURS = 100000.0;
+    private static final double MAX_CLOCK_ITERATIONS = 1.0e9;                           //Per request, summed over its replications
+
+    private Configuration defaults;                                                     //Configuration used for any field a scenario leaves out
+    private int numWorkers;
+    private ResultCache resultCache;                                                    //Optional cache of previously computed replications, may be null
+    private ThreadPoolExecutor workers;                                                 //Shared pool running the replications
+    private ExecutorService handlers;                                                   //Threads serving HTTP exchanges, mostly waiting on replications
+    private HttpServer server;
+    private ConcurrentHashMap<String, CompletableFuture<ReplicationResult>> inFlight;    //Seeded replications queued or running, by result cache key
+    private AtomicInteger replicationsRun;
+    private AtomicInteger replicationsShared;                                           //Replications served from another request's in flight replication
+
+    public SimulationService(Configuration defaults, int numWorkers, ResultCache resultCache){
+        this.defaults = defaults;
+        this.numWorkers = numWorkers;
+        this.resultCache = resultCache;
+        this.inFlight = new ConcurrentHashMap<String, CompletableFuture<ReplicationResult>>();
+        this.replicationsRun = new AtomicInteger();
+        this.replicationsShared = new AtomicInteger();
+    }
+
+    /**
+     * Warms up the worker pool and starts listening on the loopback interface.
+     *
+     * @param port 0 picks a free port
+     * @throws IOException
+     */
+    public void start(int port) throws IOException {
+        this.workers = new ThreadPoolExecutor(this.numWorkers, this.numWorkers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        this.warmUp();
+
+        this.handlers = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/simulate", this::handleSimulate);
+        this.server.createContext("/health", this::handleHealth);
+        this.server.setExecutor(this.handlers);
+        this.server.start();
+    }
+
+    public void stop(){
+        this.server.stop(0);
+        this.handlers.shutdown();
+        this.workers.shutdown();
+    }
+
+    public int getPort(){ return this.server.getAddress().getPort(); }
+
+    /**
+     * Runs a few short unseeded replications on every worker so the simulation code is compiled before the first query.
+     *
+     */
+    private void warmUp(){
+        Configuration warmup = new Configuration(this.defaults.getWorkbenchComponentBufferSize(), this.defaults.getClockIncrementSize(), WARMUP_NUM_SERVICE_TIMES, WARMUP_REPLICATION_LENGTH_HOURS);
+        ArrayList<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < this.numWorkers * WARMUP_REPLICATIONS_PER_WORKER; i++){
+            int replicationNumber = i + 1;
+            futures.add(CompletableFuture.runAsync(() -> new Replication(warmup, replicationNumber).run(), this.workers));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        String body = String.format("{\"status\":\"ok\",\"workers\":%d,\"replicationsRun\":%d,\"replicationsShared\":%d,\"inFlight\":%d}\n",
+                this.numWorkers, this.replicationsRun.get(), this.replicationsShared.get(), this.inFlight.size());
+        this.respond(exchange, 200, body);
+    }
+
+    private void handleSimulate(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            this.respond(exchange, 405, "{\"error\":\"Use POST\"}\n");
+            return;
+        }
+
+        Configuration configuration;
+        int replications;
+        RunControl runControl;
+        try {
+            Object request = Json.parse(readBody(exchange.getRequestBody()));
+            if (!(request instanceof HashMap)) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            @SuppressWarnings("unchecked")
+            HashMap<String, Object> scenario = (HashMap<String, Object>) request;
+            configuration = this.toConfiguration(scenario);
+            replications = getInt(scenario, "replications", 1, 1, MAX_REPLICATIONS);
+            checkClockIterations(configuration, replications);
+            runControl = toRunControl(scenario);
+        } catch (IllegalArgumentException e){
+            this.respond(exchange, 400, String.format("{\"error\":%s}\n", Json.quote(String.valueOf(e.getMessage()))));
+            return;
+        }
+
+        long start = System.nanoTime();
+        LinkedBlockingQueue<Object[]> finished = new LinkedBlockingQueue<Object[]>();
+        for (int r = 1; r <= replications; r++){
+            int replicationNumber = r;
+            this.submit(configuration, replicationNumber, runControl).whenComplete((result, failure) -> finished.add(new Object[]{replicationNumber, result, failure}));
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        TreeMap<String, ArrayList<Double>> quantitiesOfInterest = new TreeMap<String, ArrayList<Double>>();
+        int partialReplications = 0;
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < replications; i++){
+                Object[] next = finished.take();
+                String line;
+                if (next[2] != null) {
+                    line = String.format("{\"replication\":%d,\"error\":%s}\n", next[0], Json.quote(String.valueOf(next[2])));
+                } else {
+                    ReplicationResult result = (ReplicationResult) next[1];
+                    if (result.isPartial()) {
+                        partialReplications ++;
+                    } else {
+                        for (EntityResult entityResult : result.getEntityResults()){
+                            quantitiesOfInterest.computeIfAbsent(entityResult.getName(), name -> new ArrayList<Double>()).add(entityResult.getQuantityOfInterest());
+                        }
+                    }
+                    line = toJson((Integer) next[0], result);
+                }
+                out.write(line.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            out.write(summaryJson(quantitiesOfInterest, partialReplications, (System.nanoTime() - start) / 1e6).getBytes(StandardCharsets.UTF_8));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (IOException e){
+            //Nobody is waiting for the rest of the request's replications
+            if (runControl != null) {
+                runControl.cancel("the client disconnected");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a replication on the worker pool. A seeded replication that is already queued or running (for another
+     * request) is shared instead of being run twice, unless it runs under a run control, which only its own request may
+     * stop.
+     *
+     * @param configuration
+     * @param replicationNumber
+     * @param runControl may be null
+     * @return
+     */
+    private CompletableFuture<ReplicationResult> submit(Configuration configuration, int replicationNumber, RunControl runControl){
+        Replication replication = new Replication(configuration, replicationNumber);
+        if (runControl != null) {
+            replication.setRunControl(runControl);
+        }
+        if (replication.getSeed() == null || runControl != null) {
+            return CompletableFuture.supplyAsync(() -> this.run(replication), this.workers);
+        }
+
+        String key = ResultCache.key(configuration, replication.getSeed());
+        CompletableFuture<ReplicationResult> future = new CompletableFuture<ReplicationResult>();
+        CompletableFuture<ReplicationResult> existing = this.inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            this.replicationsShared.incrementAndGet();
+            return existing;
+        }
+        this.workers.execute(() -> {
+            try {
+                future.complete(this.run(replication));
+            } catch (Throwable t){
+                future.completeExceptionally(t);
+            } finally {
+                this.inFlight.remove(key, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs a replication on a worker. Workers reuse their last entities for the next replication, but drop them once no
+     * more replications are queued so an idle service does not hold a graph per worker.
+     *
+     * @param replication
+     * @return
+     */
+    private ReplicationResult run(Replication replication){
+        this.replicationsRun.incrementAndGet();
+        try {
+            if (this.resultCache != null) {
+                return this.resultCache.run(replication);
+            }
+            replication.run();
+            return replication.getResult();
+        } finally {
+            if (this.workers.getQueue().isEmpty()) {
+                Replication.releaseEntities();
+            }
+        }
+    }
+
+    /**
+     * Builds the configuration of a scenario, taking any missing field from the defaults.
+     *
+     * @param scenario
+     * @return
+     */
+    private Configuration toConfiguration(HashMap<String, Object> scenario){
+        Configuration configuration = new Configuration(
+                getInt(scenario, "workbenchComponentBufferSize", this.defaults.getWorkbenchComponentBufferSize(), 1, MAX_BUFFER_SIZE),
+                getDouble(scenario, "clockIncrementSize", this.defaults.getClockIncrementSize()),
+                getInt(scenario, "numServiceTimes", this.defaults.getNumServiceTimes(), 1, MAX_NUM_SERVICE_TIMES),
+                getDouble(scenario, "maxReplicationLengthHours", this.defaults.getMaxReplicationLengthHours()));
+        configuration.setInspectorOnePriorities(getStrings(scenario, "inspectorOnePriorities", this.defaults.getInspectorOnePriorities()));
+        configuration.setInspectorTwoPriorities(getStrings(scenario, "inspectorTwoPriorities", this.defaults.getInspectorTwoPriorities()));
+        configuration.setWorkbenchServers(getInt(scenario, "workbenchServers", this.defaults.getWorkbenchServers(), 1, MAX_WORKBENCH_SERVERS));
+        configuration.setSharedStationBuffers(getBoolean(scenario, "sharedStationBuffers", this.defaults.hasSharedStationBuffers()));
+        if (scenario.containsKey("seed")) {
+            Object seed = scenario.get("seed");
+            configuration.setSeed(seed == null ? null : (long) integer(scenario, "seed", Long.MIN_VALUE, Long.MAX_VALUE));
+        } else {
+            configuration.setSeed(this.defaults.getSeed());
+        }
+        if (!(configuration.getClockIncrementSize() >= MIN_CLOCK_INCREMENT_SIZE)) {
+            throw new IllegalArgumentException(String.format("clockIncrementSize must be at least %s", MIN_CLOCK_INCREMENT_SIZE));
+        }
+        if (!(configuration.getMaxReplicationLengthHours() > 0 && configuration.getMaxReplicationLengthHours() <= MAX_REPLICATION_LENGTH_HOURS)) {
+            throw new IllegalArgumentException(String.format("maxReplicationLengthHours must be positive and at most %s", MAX_REPLICATION_LENGTH_HOURS));
+        }
+        //Building the entities checks the topology (such as the workbench priorities) before anything is queued
+        Replication.init(configuration);
+        return configuration;
+    }
+
+    /**
+     * Rejects a request whose replications would step the clock more than MAX_CLOCK_ITERATIONS times in total.
+     *
+     * @param configuration
+     * @param replications
+     */
+    private static void checkClockIterations(Configuration configuration, int replications){
+        double iterationsPerReplication = Math.ceil(configuration.getMaxReplicationLengthHours() * 3600 / configuration.getClockIncrementSize());
+        if (iterationsPerReplication * replications > MAX_CLOCK_ITERATIONS) {
+            throw new IllegalArgumentException(String.format("maxReplicationLengthHours / clockIncrementSize * replications must be at most %.0f clock iterations, was %.0f", MAX_CLOCK_ITERATIONS, iterationsPerReplication * replications));
+        }
+    }
+
+    /**
+     * Builds the run control of a request from its budgets, or returns null if it sets none.
+     *
+     * @param scenario
+     * @return
+     */
+    private static RunControl toRunControl(HashMap<String, Object> scenario){
+        RunControl runControl = new RunControl();
+        runControl.setReplicationWallClockBudget(getDouble(scenario, "replicationWallClockBudgetSeconds", null));
+        runControl.setReplicationSimulatedBudget(getDouble(scenario, "replicationSimulatedBudgetHours", null));
+        runControl.setBatchWallClockBudget(getDouble(scenario, "batchWallClockBudgetSeconds", null));
+        runControl.setBatchSimulatedBudget(getDouble(scenario, "batchSimulatedBudgetHours", null));
+        Double[] budgets = {runControl.getReplicationWallClockBudget(), runControl.getReplicationSimulatedBudget(), runControl.getBatchWallClockBudget(), runControl.getBatchSimulatedBudget()};
+        boolean anyBudget = false;
+        for (Double budget : budgets){
+            if (budget != null && budget <= 0) {
+                throw new IllegalArgumentException("Budgets must be positive");
+            }
+            anyBudget = anyBudget || budget != null;
+        }
+        return anyBudget ? runControl : null;
+    }
+
+    private static double number(HashMap<String, Object> scenario, String name){
+        if (!(scenario.get(name) instanceof Double)) {
+            throw new IllegalArgumentException(String.format("%s must be a number", name));
+        }
+        return (Double) scenario.get(name);
+    }
+
+    /**
+     * Returns a whole number between min and max inclusive.
+     *
+     * @param scenario
+     * @param name
+     * @param min
+     * @param max
+     * @return
+     */
+    private static double integer(HashMap<String, Object> scenario, String name, double min, double max){
+        double value = number(scenario, name);
+        if (value != Math.rint(value) || value < min || value > max) {
+            throw new IllegalArgumentException(String.format("%s must be an integer from %.0f to %.0f", name, min, max));
+        }
+        return value;
+    }
+
+    private static int getInt(HashMap<String, Object> scenario, String name, int defaultValue, int min, int max){
+        return scenario.containsKey(name) ? (int) integer(scenario, name, min, max) : defaultValue;
+    }
+
+    private static Double getDouble(HashMap<String, Object> scenario, String name, Double defaultValue){
+        return scenario.containsKey(name) ? Double.valueOf(number(scenario, name)) : defaultValue;
+    }
+
+    private static boolean getBoolean(HashMap<String, Object> scenario, String name, boolean defaultValue){
+        if (!scenario.containsKey(name)) {
+            return defaultValue;
+        }
+        if (!(scenario.get(name) instanceof Boolean)) {
+            throw new IllegalArgumentException(String.format("%s must be true or false", name));
+        }
+        return (Boolean) scenario.get(name);
+    }
+
+    private static ArrayList<String> getStrings(HashMap<String, Object> scenario, String name, ArrayList<String> defaultValue){
+        if (!scenario.containsKey(name)) {
+            return defaultValue;
+        }
+        if (!(scenario.get(name) instanceof ArrayList)) {
+            throw new IllegalArgumentException(String.format("%s must be an array of workbench names", name));
+        }
+        ArrayList<String> values = new ArrayList<String>();
+        for (Object value : (ArrayList<?>) scenario.get(name)){
+            if (!(value instanceof String)) {
+                throw new IllegalArgumentException(String.format("%s must be an array of workbench names", name));
+            }
+            values.add((String) value);
+        }
+        return values;
+    }
+
+    private static String toJson(int replicationNumber, ReplicationResult result){
+        StringBuilder json = new StringBuilder();
+        json.append(String.format("{\"replication\":%d,\"seed\":%s,\"simulatedHours\":%s,\"stopReason\":%s,\"partial\":%b,\"results\":{",
+                replicationNumber, result.getSeed(), Json.number(result.getSimulatedTime() / 3600), Json.quote(result.getStopReason()), result.isPartial()));
+        ArrayList<EntityResult> entityResults = result.getEntityResults();
+        for (int i = 0; i < entityResults.size(); i++){
+            json.append(i > 0 ? "," : "").append(Json.quote(entityResults.get(i).getName())).append(':').append(Json.number(entityResults.get(i).getQuantityOfInterest()));
+        }
+        return json.append("}}\n").toString();
+    }
+
+    private static String summaryJson(TreeMap<String, ArrayList<Double>> quantitiesOfInterest, int partialReplications, double elapsedMillis){
+        StringBuilder json = new StringBuilder("{\"summary\":{");
+        boolean first = true;
+        for (Map.Entry<String, ArrayList<Double>> entry : quantitiesOfInterest.entrySet()){
+            json.append(first ? "" : ",").append(Json.quote(entry.getKey())).append(':');
+            json.append(String.format("{\"mean\":%s,\"halfWidth\":%s}", Json.number(Calculator.mean(entry.getValue())), Json.number(Calculator.confidenceHalfWidth95(entry.getValue()))));
+            first = false;
+        }
+        return json.append(String.format("},\"partialReplications\":%d,\"elapsedMillis\":%s}\n", partialReplications, Json.number(elapsedMillis))).toString();
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package simulation;
+
+import entities.Entity;
+import globals.EntityState;
+import globals.EntityType;
+import globals.Ticks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Records each entity's quantity of interest (throughput for workbenches, idle % for inspectors) over consecutive
+ * batches of simulated time after a warm-up period, for steady-state estimation within a single replication.
+ * Entities may be recorded by different threads as long as each entity is only ever recorded by one of them.
+ */
+public class BatchRecorder {
+    private long warmupIterations;                                                      //Clock iterations discarded before the first batch
+    private long iterationsPerBatch;                                                    //Clock iterations in each batch
+    private long batchLength;                                                           //Simulated length of each batch (ticks)
+    private HashMap<Entity, long[]> lastCounters;                                       //Services completed (workbenches) or blocked ticks (inspectors) at the last batch boundary
+    private HashMap<Entity, ArrayList<Double>> batchValues;                             //Quantity of interest of each entity over each completed batch
+
+    public BatchRecorder(ArrayList<Entity> entities, long clockIncrementSize, double warmupHours, double batchLengthHours){
+        this.warmupIterations = Ticks.fromHours(warmupHours) / clockIncrementSize;
+        this.iterationsPerBatch = Math.max(1, Ticks.fromHours(batchLengthHours) / clockIncrementSize);
+        this.batchLength = this.iterationsPerBatch * clockIncrementSize;
+        this.lastCounters = new HashMap<Entity, long[]>();
+        this.batchValues = new HashMap<Entity, ArrayList<Double>>();
+        for (Entity entity : entities){
+            this.lastCounters.put(entity, new long[1]);
+            this.batchValues.put(entity, new ArrayList<Double>());
+        }
+    }
+
+    /**
+     * Called once completedIterations clock iterations have been applied to the given entities. At the end of the
+     * warm-up the counters are reset, and at the end of each batch the batch values are recorded.
+     *
+     * @param completedIterations
+     * @param entities
+     * @return true if a batch was completed
+     */
+    public boolean iterationCompleted(long completedIterations, Iterable<? extends Entity> entities){
+        if (completedIterations < this.warmupIterations || (completedIterations - this.warmupIterations) % this.iterationsPerBatch != 0) {
+            return false;
+        }
+        for (Entity entity : entities){
+            long[] lastCounter = this.lastCounters.get(entity);
+            long counter = counter(entity);
+            if (completedIterations > this.warmupIterations) {
+                long delta = counter - lastCounter[0];
+                double value = entity.getEntityType() == EntityType.INSPECTOR ? delta * 100.0 / this.batchLength : delta / Ticks.toHours(this.batchLength);
+                this.batchValues.get(entity).add(value);
+            }
+            lastCounter[0] = counter;
+        }
+        return completedIterations > this.warmupIterations;
+    }
+
+    private static long counter(Entity entity){
+        return entity.getEntityType() == EntityType.INSPECTOR ? entity.getStateTime(EntityState.BLOCKED) : entity.getServicesCompleted();
+    }
+
+    /**
+     * Quantity of interest of an entity over each completed batch, in order.
+     *
+     * @param entity
+     * @return
+     */
+    public ArrayList<Double> getBatchValues(Entity entity){
+        return this.batchValues.get(entity);
+    }
+
+    public double getBatchLengthHours(){ return Ticks.toHours(this.batchLength); }
+}
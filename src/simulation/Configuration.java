@@ -0,0 +1,107 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class Configuration {
+    private int workbenchComponentBufferSize;                                           //Maximum number of components held in each workbench buffer
+    private Double clockIncrementSize;                                                  //Size of a single clock update (seconds)
+    private int numServiceTimes;                                                        //Number of service times generated for each entity
+    private Double maxReplicationLengthHours;                                           //Upper bound on the simulated length of a replication
+    private ArrayList<String> inspectorOnePriorities;                                   //Workbench names in Inspector1 priority order (highest priority first)
+    private ArrayList<String> inspectorTwoPriorities;                                   //Workbench names in Inspector2 priority order (highest priority first)
+    private Long seed;                                                                  //Base seed, replication n uses seed + n. null means unseeded (not reproducible)
+    private Double warmupHours;                                                         //Simulated time discarded before steady-state batches are recorded
+    private Double batchLengthHours;                                                    //Simulated length of each steady-state batch
+    private int workbenchServers;                                                       //Identical servers pooled in each workbench station, 1 for plain workbenches
+    private boolean sharedStationBuffers;                                               //Whether a station's servers share one buffer per component instead of keeping a buffer each
+
+    public Configuration(int workbenchComponentBufferSize, Double clockIncrementSize, int numServiceTimes, Double maxReplicationLengthHours){
+        this.workbenchComponentBufferSize = workbenchComponentBufferSize;
+        this.clockIncrementSize = clockIncrementSize;
+        this.numServiceTimes = numServiceTimes;
+        this.maxReplicationLengthHours = maxReplicationLengthHours;
+        this.inspectorOnePriorities = new ArrayList<String>(Arrays.asList("WorkBench1", "WorkBench2", "WorkBench3"));
+        this.inspectorTwoPriorities = new ArrayList<String>(Arrays.asList("WorkBench2", "WorkBench3"));
+        this.warmupHours = 0.0;
+        this.batchLengthHours = 1.0;
+        this.workbenchServers = 1;
+        this.sharedStationBuffers = false;
+    }
+
+    /**
+     * Copy constructor, used when deriving candidate designs from a base configuration.
+     *
+     * @param configuration
+     */
+    public Configuration(Configuration configuration){
+        this.workbenchComponentBufferSize = configuration.workbenchComponentBufferSize;
+        this.clockIncrementSize = configuration.clockIncrementSize;
+        this.numServiceTimes = configuration.numServiceTimes;
+        this.maxReplicationLengthHours = configuration.maxReplicationLengthHours;
+        this.inspectorOnePriorities = new ArrayList<String>(configuration.inspectorOnePriorities);
+        this.inspectorTwoPriorities = new ArrayList<String>(configuration.inspectorTwoPriorities);
+        this.seed = configuration.seed;
+        this.warmupHours = configuration.warmupHours;
+        this.batchLengthHours = configuration.batchLengthHours;
+        this.workbenchServers = configuration.workbenchServers;
+        this.sharedStationBuffers = configuration.sharedStationBuffers;
+    }
+
+    public int getWorkbenchComponentBufferSize(){ return this.workbenchComponentBufferSize; }
+    public void setWorkbenchComponentBufferSize(int workbenchComponentBufferSize){ this.workbenchComponentBufferSize = workbenchComponentBufferSize; }
+
+    public Double getClockIncrementSize(){ return this.clockIncrementSize; }
+
+    public int getNumServiceTimes(){ return this.numServiceTimes; }
+
+    public Double getMaxReplicationLengthHours(){ return this.maxReplicationLengthHours; }
+
+    public ArrayList<String> getInspectorOnePriorities(){ return this.inspectorOnePriorities; }
+    public void setInspectorOnePriorities(ArrayList<String> inspectorOnePriorities){ this.inspectorOnePriorities = inspectorOnePriorities; }
+
+    public ArrayList<String> getInspectorTwoPriorities(){ return this.inspectorTwoPriorities; }
+    public void setInspectorTwoPriorities(ArrayList<String> inspectorTwoPriorities){ this.inspectorTwoPriorities = inspectorTwoPriorities; }
+
+    public Long getSeed(){ return this.seed; }
+    public void setSeed(Long seed){ this.seed = seed; }
+
+    public Double getWarmupHours(){ return this.warmupHours; }
+    public void setWarmupHours(Double warmupHours){ this.warmupHours = warmupHours; }
+
+    public Double getBatchLengthHours(){ return this.batchLengthHours; }
+    public void setBatchLengthHours(Double batchLengthHours){ this.batchLengthHours = batchLengthHours; }
+
+    public int getWorkbenchServers(){ return this.workbenchServers; }
+    public void setWorkbenchServers(int workbenchServers){
+        if (workbenchServers < 1) {
+            throw new IllegalArgumentException("A workbench station needs at least one server");
+        }
+        this.workbenchServers = workbenchServers;
+    }
+
+    public boolean hasSharedStationBuffers(){ return this.sharedStationBuffers; }
+    public void setSharedStationBuffers(boolean sharedStationBuffers){ this.sharedStationBuffers = sharedStationBuffers; }
+
+    /**
+     * Canonical text form of every field that affects simulation output (except the seed), used to key cached results.
+     * Station fields are only included for pooled workbenches, so single-server keys match those cached before stations.
+     *
+     * @return
+     */
+    public String getCanonicalString(){
+        String stations = this.workbenchServers == 1 ? "" : String.format(";workbenchServers=%d;sharedStationBuffers=%b", this.workbenchServers, this.sharedStationBuffers);
+        return String.format("bufferSize=%d;clockIncrementSize=%s;numServiceTimes=%d;maxReplicationLengthHours=%s;inspectorOnePriorities=%s;inspectorTwoPriorities=%s;warmupHours=%s;batchLengthHours=%s%s",
+                this.workbenchComponentBufferSize, Double.toString(this.clockIncrementSize), this.numServiceTimes, Double.toString(this.maxReplicationLengthHours), this.inspectorOnePriorities, this.inspectorTwoPriorities, Double.toString(this.warmupHours), Double.toString(this.batchLengthHours), stations);
+    }
+
+    /**
+     * Short human readable description of the design decisions captured by this configuration.
+     *
+     * @return
+     */
+    public String getDescription(){
+        String stations = this.workbenchServers == 1 ? "" : String.format(" servers=%d%s", this.workbenchServers, this.sharedStationBuffers ? " shared" : "");
+        return String.format("buffer=%d Inspector1%s Inspector2%s%s", this.workbenchComponentBufferSize, this.inspectorOnePriorities, this.inspectorTwoPriorities, stations);
+    }
+}
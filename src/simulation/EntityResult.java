@@ -0,0 +1,102 @@
+package simulation;
+
+import entities.Entity;
+import globals.ComponentName;
+import globals.EntityState;
+import globals.EntityType;
+import globals.Ticks;
+import statistics.QuantileSketch;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+
+public class EntityResult {
+    private String name;                                                                //Name of entity
+    private EntityType entityType;
+    private Double quantityOfInterest;                                                  //Throughput for workbenches, idle % for inspectors
+    private Long servicesCompleted;
+    private EnumMap<EntityState, Double> stateTimes;                                    //Time spent in each state (seconds)
+    private EnumMap<ComponentName, double[]> littlesLawStatistics;                      //{avgNumInSystem, avgArrivalRate, avgSystemTime} per completed component type
+    private ArrayList<Double> batchValues;                                              //Quantity of interest over each steady-state batch
+    private EnumMap<ComponentName, QuantileSketch> systemTimeSketches;                  //Distribution of component system times at the entity (ticks)
+    private EnumMap<ComponentName, QuantileSketch> interArrivalTimeSketches;            //Distribution of component inter-arrival times at the entity (ticks)
+    private EnumMap<ComponentName, QuantileSketch> endToEndSystemTimeSketches;          //Distribution of end-to-end system times of the components retired by the entity (ticks)
+
+    public EntityResult(String name, EntityType entityType, Double quantityOfInterest, Long servicesCompleted){
+        this.name = name;
+        this.entityType = entityType;
+        this.quantityOfInterest = quantityOfInterest;
+        this.servicesCompleted = servicesCompleted;
+        this.stateTimes = new EnumMap<EntityState, Double>(EntityState.class);
+        this.littlesLawStatistics = new EnumMap<ComponentName, double[]>(ComponentName.class);
+        this.batchValues = new ArrayList<Double>();
+        this.systemTimeSketches = new EnumMap<ComponentName, QuantileSketch>(ComponentName.class);
+        this.interArrivalTimeSketches = new EnumMap<ComponentName, QuantileSketch>(ComponentName.class);
+        this.endToEndSystemTimeSketches = new EnumMap<ComponentName, QuantileSketch>(ComponentName.class);
+    }
+
+    /**
+     * Captures the outputs of an entity at the end of a replication, with its steady-state batch values if any were recorded.
+     *
+     * @param entity
+     * @param batchRecorder may be null
+     */
+    public EntityResult(Entity entity, BatchRecorder batchRecorder){
+        this(entity);
+        if (batchRecorder != null) {
+            this.batchValues.addAll(batchRecorder.getBatchValues(entity));
+        }
+    }
+
+    /**
+     * Captures the outputs of an entity at the end of a replication.
+     *
+     * @param entity
+     */
+    public EntityResult(Entity entity){
+        this(entity.getName(), entity.getEntityType(), entity.getQuantityOfInterest(), entity.getServicesCompleted());
+        for (EntityState state : EntityState.values()){
+            this.stateTimes.put(state, Ticks.toSeconds(entity.getStateTime(state)));
+        }
+        for (ComponentName componentName : entity.getCompletedComponents().keySet()){
+            this.littlesLawStatistics.put(componentName, entity.getLittlesLawStatistics(componentName));
+        }
+        copySketches(entity.getSystemTimeSketches(), this.systemTimeSketches);
+        copySketches(entity.getInterArrivalTimeSketches(), this.interArrivalTimeSketches);
+        copySketches(entity.getEndToEndSystemTimeSketches(), this.endToEndSystemTimeSketches);
+    }
+
+    /**
+     * Copies sketches, since the entity's own sketches are cleared when it is reset for another replication.
+     *
+     * @param sketches
+     * @param copies
+     */
+    private static void copySketches(EnumMap<ComponentName, QuantileSketch> sketches, EnumMap<ComponentName, QuantileSketch> copies){
+        for (ComponentName componentName : sketches.keySet()){
+            QuantileSketch copy = new QuantileSketch();
+            copy.merge(sketches.get(componentName));
+            copies.put(componentName, copy);
+        }
+    }
+
+    public String getName(){ return this.name; }
+
+    public EntityType getEntityType(){ return this.entityType; }
+
+    public Double getQuantityOfInterest(){ return this.quantityOfInterest; }
+
+    public Long getServicesCompleted(){ return this.servicesCompleted; }
+
+    public EnumMap<EntityState, Double> getStateTimes(){ return this.stateTimes; }
+
+    public EnumMap<ComponentName, double[]> getLittlesLawStatistics(){ return this.littlesLawStatistics; }
+
+    public ArrayList<Double> getBatchValues(){ return this.batchValues; }
+
+    public EnumMap<ComponentName, QuantileSketch> getSystemTimeSketches(){ return this.systemTimeSketches; }
+
+    public EnumMap<ComponentName, QuantileSketch> getInterArrivalTimeSketches(){ return this.interArrivalTimeSketches; }
+
+    public EnumMap<ComponentName, QuantileSketch> getEndToEndSystemTimeSketches(){ return this.endToEndSystemTimeSketches; }
+}
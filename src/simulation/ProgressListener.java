@@ -0,0 +1,16 @@
+package simulation;
+
+/**
+ * Notified periodically while a replication runs under a RunControl, for example to show how far a long replication
+ * has got.
+ */
+public interface ProgressListener {
+    /**
+     * @param replication replication in progress, its entities hold the results so far
+     * @param simulatedHours simulated time reached
+     * @param targetHours simulated time the replication runs to unless an entity reaches DONE first
+     * @param throughput products assembled per simulated hour so far, over all workbenches
+     * @param etaSeconds estimated wall-clock time left to reach targetHours
+     */
+    void progressed(Replication replication, double simulatedHours, double targetHours, double throughput, double etaSeconds);
+}
@@ -0,0 +1,437 @@
+package simulation;
+
+import entities.*;
+import globals.ComponentName;
+import globals.EntityState;
+import globals.EntityType;
+import globals.Lambda;
+import globals.Product;
+import globals.Ticks;
+import statistics.NumberGenerator;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+public class Replication {
+    private static final ThreadLocal<SoftReference<ReusableEntities>> REUSABLE_ENTITIES = new ThreadLocal<SoftReference<ReusableEntities>>(); //Entities last built on each thread (at most one graph per thread, cleared under memory pressure), reset rather than rebuilt for the next replication of the same configuration
+    protected Configuration configuration;                                              //Configuration used to build the entities for this replication
+    protected int replicationNumber;                                                    //Replication number, used for reporting
+    protected ArrayList<Entity> entities;                                               //All entities taking part in this replication
+    protected HashMap<ComponentName, ArrayList<Component>> allCompletedComponents;      //Components that have made it through the entire system
+    protected long clockIterations;                                                     //Number of clock iterations
+    protected String stopReason;                                                        //Why the replication was stopped
+    protected Long seed;                                                                //Seed for this replication, null if unseeded
+    protected BatchRecorder batchRecorder;                                              //Steady-state batch values of each entity
+    protected RunControl runControl;                                                    //Optional progress reporting, budgets and cancellation, may be null
+    protected boolean partial;                                                          //Whether the replication was stopped by its run control, leaving partial results
+    private RunControl.Run controlRun;                                                  //The run control's tracking of this replication while it runs, null without a run control
+
+    public Replication(Configuration configuration, int replicationNumber){
+        this.configuration = configuration;
+        this.replicationNumber = replicationNumber;
+        this.seed = configuration.getSeed() == null ? null : configuration.getSeed() + replicationNumber;
+        this.allCompletedComponents = new HashMap<ComponentName, ArrayList<Component>>();
+        this.clockIterations = 0;
+    }
+
+    /**
+     * Runs the replication until an entity reaches the DONE state or MAX_REPLICATION_LENGTH_HOURS has been reached,
+     * or until the run control (if any) stops it, then gathers the completed components from the workbenches.
+     *
+     */
+    public void run(){
+        long clockIncrementSize = Ticks.fromSeconds(this.configuration.getClockIncrementSize());
+        Double maxReplicationLengthHours = this.configuration.getMaxReplicationLengthHours();
+        long maxReplicationLength = Ticks.fromHours(maxReplicationLengthHours);
+        this.entities = acquireEntities(this.configuration, this.seed);
+        this.batchRecorder = new BatchRecorder(this.entities, clockIncrementSize, this.configuration.getWarmupHours(), this.configuration.getBatchLengthHours());
+        this.entitiesInitialized();
+
+        //A simulated time budget ends the replication at the same point a shorter MAX_REPLICATION_LENGTH_HOURS would
+        long simulatedBudget = this.startRunControl(maxReplicationLength);
+
+        //Run simulation until all entities are in either the DONE or BLOCKED state.
+        boolean replicationComplete = this.stoppedBeforeStart();
+        while (!replicationComplete) {
+            //Iterate through each entity and trigger the entity's clock to update
+            for (Entity entity : this.entities) {
+                //Only update clock for an entity that is not in the DONE state.
+                if (entity.getState() != EntityState.DONE) {
+                    entity.clockUpdate(clockIncrementSize);
+                } else {
+                    //If an entity is DONE, this means that there are no more service times for this replication loaded for this entity, end simulation
+                    this.stopReason = String.format("REPLICATION %d has been stopped since %s is in DONE state", this.replicationNumber, entity.getName());
+                    replicationComplete = true;
+                }
+            }
+
+            if (this.clockIterations * clockIncrementSize > maxReplicationLength){
+                this.stopReason = String.format("REPLICATION %d has been stopped since %s [MAX_REPLICATION_LENGTH_HOURS] has been reached", this.replicationNumber, maxReplicationLengthHours);
+                replicationComplete = true;
+            }
+
+            if (!replicationComplete && this.clockIterations * clockIncrementSize > simulatedBudget){
+                this.stopAtSimulatedBudget();
+                replicationComplete = true;
+            }
+
+            this.clockIterations ++;
+            this.batchRecorder.iterationCompleted(this.clockIterations, this.entities);
+            this.iterationCompleted();
+
+            if (!replicationComplete && this.clockIterations % RunControl.CHECK_INTERVAL == 0) {
+                String stopReason = this.checkRunControl(this.clockIterations * clockIncrementSize);
+                if (stopReason != null) {
+                    this.stopEarly(stopReason);
+                    replicationComplete = true;
+                }
+            }
+        }
+        this.finishRunControl(this.clockIterations * clockIncrementSize);
+
+        this.gatherCompletedComponents();
+    }
+
+    /**
+     * Starts tracking the replication with its run control, if any, before the first clock iteration.
+     *
+     * @param maxReplicationLength
+     * @return simulated time (ticks) after which the replication's budget stops it, Long.MAX_VALUE for no budget
+     */
+    protected long startRunControl(long maxReplicationLength){
+        this.controlRun = null;
+        if (this.runControl == null) {
+            return Long.MAX_VALUE;
+        }
+        long simulatedBudget = Long.MAX_VALUE;
+        if (this.runControl.getReplicationSimulatedBudget() != null) {
+            simulatedBudget = Ticks.fromHours(this.runControl.getReplicationSimulatedBudget());
+        }
+        this.controlRun = this.runControl.start(this, Math.min(maxReplicationLength, simulatedBudget));
+        return simulatedBudget;
+    }
+
+    /**
+     * Stops the replication before its first clock iteration if its batch already has to stop.
+     *
+     * @return whether the replication was stopped
+     */
+    protected boolean stoppedBeforeStart(){
+        String batchStopReason = this.runControl == null ? null : this.runControl.getBatchStopReason();
+        if (batchStopReason != null) {
+            this.stopEarly(batchStopReason);
+        }
+        return batchStopReason != null;
+    }
+
+    /**
+     * Checks the run control, to be called every RunControl.CHECK_INTERVAL clock iterations.
+     *
+     * @param simulatedTicks simulated time (ticks) reached by the replication
+     * @return why the replication must stop, or null to continue
+     */
+    protected String checkRunControl(long simulatedTicks){
+        return this.controlRun == null ? null : this.controlRun.check(simulatedTicks);
+    }
+
+    /**
+     * Tells the run control, if any, that the replication has stopped.
+     *
+     * @param simulatedTicks
+     */
+    protected void finishRunControl(long simulatedTicks){
+        if (this.controlRun != null) {
+            this.controlRun.finish(simulatedTicks);
+        }
+    }
+
+    /**
+     * Records that the replication's simulated time budget stopped it.
+     *
+     */
+    protected void stopAtSimulatedBudget(){
+        this.stopEarly(String.format("its simulated time budget of %.1f hrs has been reached", this.runControl.getReplicationSimulatedBudget()));
+    }
+
+    /**
+     * Records that the run control stopped the replication before its normal end.
+     *
+     * @param reason
+     */
+    protected void stopEarly(String reason){
+        this.stopReason = String.format("REPLICATION %d has been stopped since %s (partial results)", this.replicationNumber, reason);
+        this.partial = true;
+    }
+
+    /**
+     * Runs the replication under a run control, which can report its progress, limit it to budgets and cancel it.
+     *
+     * @param runControl
+     */
+    public void setRunControl(RunControl runControl){
+        this.runControl = runControl;
+    }
+
+    /**
+     * Whether the run control stopped the replication before its normal end, so its results only cover part of it.
+     *
+     * @return
+     */
+    public boolean isPartial(){ return this.partial; }
+
+    /**
+     * Called once the entities have been initialized, before the first clock iteration. Subclasses can attach observers here.
+     *
+     */
+    protected void entitiesInitialized(){
+    }
+
+    /**
+     * Called after every clock iteration, once clockIterations has been incremented. Subclasses can sample the entities here.
+     *
+     */
+    protected void iterationCompleted(){
+    }
+
+    /**
+     * Get all components that have made it through the entire system (completed components from the workbenches)
+     *
+     */
+    protected void gatherCompletedComponents(){
+        for (Entity entity : this.entities) {
+            if (entity.getEntityType().equals(EntityType.WORKBENCH)) {
+                HashMap<ComponentName, ArrayList<Component>> completedComponents = entity.getCompletedComponents();
+                for (ComponentName componentName : completedComponents.keySet()) {
+                    if (!this.allCompletedComponents.containsKey(componentName)) {
+                        this.allCompletedComponents.put(componentName, new ArrayList<Component>());
+                    }
+                    ArrayList<Component> comp = this.allCompletedComponents.get(componentName);
+                    comp.addAll(completedComponents.get(componentName));
+                }
+            }
+        }
+    }
+
+    public int getReplicationNumber(){ return this.replicationNumber; }
+
+    public Configuration getConfiguration(){ return this.configuration; }
+
+    public Long getSeed(){ return this.seed; }
+
+    public ArrayList<Entity> getEntities(){ return this.entities; }
+
+    public HashMap<ComponentName, ArrayList<Component>> getAllCompletedComponents(){ return this.allCompletedComponents; }
+
+    public long getClockIterations(){ return this.clockIterations; }
+
+    public String getStopReason(){ return this.stopReason; }
+
+    /**
+     * Simulated length of this replication in seconds.
+     *
+     * @return
+     */
+    public Double getSimulatedTime(){ return Ticks.toSeconds(this.clockIterations * Ticks.fromSeconds(this.configuration.getClockIncrementSize())); }
+
+    /**
+     * Returns the quantity of interest for each entity, keyed by entity name.
+     *
+     * @return
+     */
+    public HashMap<String, Double> getQuantitiesOfInterest(){
+        HashMap<String, Double> quantitiesOfInterest = new HashMap<String, Double>();
+        for (Entity entity : this.entities) {
+            quantitiesOfInterest.put(entity.getName(), entity.getQuantityOfInterest());
+        }
+        return quantitiesOfInterest;
+    }
+
+    /**
+     * Returns a compact summary of this replication's outputs, which unlike the entities can be cached.
+     *
+     * @return
+     */
+    public ReplicationResult getResult(){
+        ReplicationResult result = new ReplicationResult(this.seed, this.getSimulatedTime(), this.stopReason, this.entities, this.batchRecorder);
+        result.setPartial(this.partial);
+        return result;
+    }
+
+    /**
+     * Returns entities ready for a replication with the given seed, resetting the ones this thread built for its last
+     * replication when they share the configuration instead of building new ones. The entities of a replication stay
+     * valid until the same thread runs another replication. Each thread keeps only its last graph, through a soft
+     * reference so the garbage collector can reclaim it, and long-lived threads should call releaseEntities() once
+     * they have no more replications to run.
+     *
+     * @param configuration
+     * @param seed
+     * @return
+     */
+    public static ArrayList<Entity> acquireEntities(Configuration configuration, Long seed){
+        String key = configuration.getCanonicalString();
+        SoftReference<ReusableEntities> reference = REUSABLE_ENTITIES.get();
+        ReusableEntities reusable = reference == null ? null : reference.get();
+        if (reusable == null || !reusable.key.equals(key)) {
+            REUSABLE_ENTITIES.remove();
+            reusable = new ReusableEntities(key, init(configuration, seed));
+            REUSABLE_ENTITIES.set(new SoftReference<ReusableEntities>(reusable));
+            return reusable.entities;
+        }
+        for (Entity entity : reusable.entities){
+            entity.reset(seed);
+        }
+        return reusable.entities;
+    }
+
+    /**
+     * Drops the entities kept by the calling thread for reuse. The entities of replications already run stay valid.
+     *
+     */
+    public static void releaseEntities(){
+        REUSABLE_ENTITIES.remove();
+    }
+
+    /**
+     * Initialize all components without seeding (used when only the entity names are needed).
+     *
+     * @param configuration
+     * @return
+     */
+    public static ArrayList<Entity> init(Configuration configuration){
+        return init(configuration, null);
+    }
+
+    /**
+     * Initialize all components. Each service time list draws from its own stream (one per Lambda) derived from the seed,
+     * and each inspector's component choice uses a further stream. The streams are drawn by resetting the new entities,
+     * so entities built here and entities reset with the same seed start identically.
+     *
+     * @param configuration
+     * @param seed
+     * @return
+     */
+    public static ArrayList<Entity> init(Configuration configuration, Long seed){
+        ArrayList<Entity> entities = new ArrayList<Entity>();
+        int numServiceTimes = configuration.getNumServiceTimes();
+        //A station's servers draw from one stream, so it needs service times for all of them
+        int workbenchServiceTimes = Math.multiplyExact(numServiceTimes, configuration.getWorkbenchServers());
+        HashMap<String, WorkBench> workbenches = new HashMap<String, WorkBench>();
+
+        WorkBench workbenchOne = newWorkbench("WorkBench1", Product.P1, configuration);
+        workbenchOne.registerComponent(ComponentName.C1);
+        workbenchOne.setServiceTimeStream(Lambda.WORKSTATION1.ordinal(), workbenchServiceTimes);
+        workbenchOne.setServiceRate(Lambda.WORKSTATION1.value);
+        workbenches.put(workbenchOne.getName(), workbenchOne);
+
+        WorkBench workbenchTwo = newWorkbench("WorkBench2", Product.P2, configuration);
+        workbenchTwo.registerComponent(ComponentName.C1);
+        workbenchTwo.registerComponent(ComponentName.C2);
+        workbenchTwo.setServiceTimeStream(Lambda.WORKSTATION2.ordinal(), workbenchServiceTimes);
+        workbenchTwo.setServiceRate(Lambda.WORKSTATION2.value);
+        workbenches.put(workbenchTwo.getName(), workbenchTwo);
+
+        WorkBench workbenchThree = newWorkbench("WorkBench3", Product.P3, configuration);
+        workbenchThree.registerComponent(ComponentName.C1);
+        workbenchThree.registerComponent(ComponentName.C3);
+        workbenchThree.setServiceTimeStream(Lambda.WORKSTATION3.ordinal(), workbenchServiceTimes);
+        workbenchThree.setServiceRate(Lambda.WORKSTATION3.value);
+        workbenches.put(workbenchThree.getName(), workbenchThree);
+
+        Inspector inspectorOne = new Inspector("Inspector1");
+        inspectorOne.registerComponent(ComponentName.C1);
+        inspectorOne.registerComponentForWorkbench(ComponentName.C1, workbenchOne);
+        inspectorOne.registerComponentForWorkbench(ComponentName.C1, workbenchTwo);
+        inspectorOne.registerComponentForWorkbench(ComponentName.C1, workbenchThree);
+        registerWorkbenchPriorities(inspectorOne, configuration.getInspectorOnePriorities(), workbenches);
+        inspectorOne.registerComponentServiceTimeStream(ComponentName.C1, Lambda.SERVINSP1.ordinal(), numServiceTimes);
+        inspectorOne.registerComponentServiceRate(ComponentName.C1, Lambda.SERVINSP1.value);
+
+        Inspector inspectorTwo = new Inspector("Inspector2");
+        inspectorTwo.registerComponent(ComponentName.C2);
+        inspectorTwo.registerComponent(ComponentName.C3);
+        inspectorTwo.registerComponentForWorkbench(ComponentName.C2, workbenchTwo);
+        inspectorTwo.registerComponentForWorkbench(ComponentName.C3, workbenchThree);
+        registerWorkbenchPriorities(inspectorTwo, configuration.getInspectorTwoPriorities(), workbenches);
+        inspectorTwo.registerComponentServiceTimeStream(ComponentName.C2, Lambda.SERVINSP22.ordinal(), numServiceTimes);
+        inspectorTwo.registerComponentServiceRate(ComponentName.C2, Lambda.SERVINSP22.value);
+        inspectorTwo.registerComponentServiceTimeStream(ComponentName.C3, Lambda.SERVINSP23.ordinal(), numServiceTimes);
+        inspectorTwo.registerComponentServiceRate(ComponentName.C3, Lambda.SERVINSP23.value);
+
+        inspectorOne.registerChoiceStream(Lambda.values().length);
+        inspectorTwo.registerChoiceStream(Lambda.values().length + 1);
+
+        entities.add(inspectorOne);
+        entities.add(inspectorTwo);
+        entities.add(workbenchOne);
+        entities.add(workbenchTwo);
+        entities.add(workbenchThree);
+
+        for (Entity entity : entities){
+            entity.reset(seed);
+        }
+        return entities;
+    }
+
+    /**
+     * Builds a workbench, or a station pooling the configured number of identical servers when there is more than one.
+     *
+     * @param name
+     * @param product
+     * @param configuration
+     * @return
+     */
+    private static WorkBench newWorkbench(String name, Product product, Configuration configuration){
+        if (configuration.getWorkbenchServers() == 1) {
+            return new WorkBench(name, product, configuration.getWorkbenchComponentBufferSize());
+        }
+        return new WorkStation(name, product, configuration.getWorkbenchComponentBufferSize(), configuration.getWorkbenchServers(), configuration.hasSharedStationBuffers());
+    }
+
+    /**
+     * Registers workbench priorities for an inspector, using the position in the priority list (1 = highest priority).
+     * The list must name every workbench the inspector supplies exactly once, otherwise a workbench would be dropped from
+     * routing or an unknown one registered.
+     *
+     * @param inspector
+     * @param priorities
+     * @param workbenches
+     */
+    private static void registerWorkbenchPriorities(Inspector inspector, ArrayList<String> priorities, HashMap<String, WorkBench> workbenches){
+        TreeSet<String> supplied = new TreeSet<String>();
+        for (ComponentName componentName : inspector.getInspectableComponents()){
+            for (WorkBench workbench : inspector.getWorkbenchesForComponent(componentName)){
+                supplied.add(workbench.getName());
+            }
+        }
+        if (priorities.size() != supplied.size() || !supplied.equals(new TreeSet<String>(priorities))) {
+            throw new IllegalArgumentException(String.format("%s priorities must name each of %s exactly once, got %s", inspector.getName(), supplied, priorities));
+        }
+        for (int i = 0; i < priorities.size(); i++){
+            inspector.registerWorkbenchPriority(workbenches.get(priorities.get(i)), i + 1);
+        }
+    }
+
+    /**
+     * Derives an independent stream seed from a replication seed and a stream index, see NumberGenerator.streamSeed.
+     *
+     * @param seed
+     * @param stream
+     * @return
+     */
+    public static long streamSeed(long seed, int stream){
+        return NumberGenerator.streamSeed(seed, stream);
+    }
+
+    private static class ReusableEntities {
+        private final String key;                                                       //Canonical configuration the entities were built for
+        private final ArrayList<Entity> entities;
+
+        ReusableEntities(String key, ArrayList<Entity> entities){
+            this.key = key;
+            this.entities = entities;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package simulation;
+
+import entities.Entity;
+
+import java.util.ArrayList;
+
+public class ReplicationResult {
+    private Long seed;                                                                  //Seed of the replication, null if unseeded
+    private Double simulatedTime;                                                       //Simulated length of the replication (seconds)
+    private String stopReason;                                                          //Why the replication was stopped
+    private ArrayList<EntityResult> entityResults;                                      //Per entity outputs, in the same order as the entities
+    private boolean partial;                                                            //Whether the replication was stopped by its run control, so the outputs only cover part of it
+
+    public ReplicationResult(Long seed, Double simulatedTime, String stopReason, ArrayList<EntityResult> entityResults){
+        this.seed = seed;
+        this.simulatedTime = simulatedTime;
+        this.stopReason = stopReason;
+        this.entityResults = entityResults;
+    }
+
+    public ReplicationResult(Long seed, Double simulatedTime, String stopReason, Iterable<Entity> entities, BatchRecorder batchRecorder){
+        this(seed, simulatedTime, stopReason, new ArrayList<EntityResult>());
+        for (Entity entity : entities){
+            this.entityResults.add(new EntityResult(entity, batchRecorder));
+        }
+    }
+
+    public Long getSeed(){ return this.seed; }
+
+    public Double getSimulatedTime(){ return this.simulatedTime; }
+
+    public String getStopReason(){ return this.stopReason; }
+
+    public ArrayList<EntityResult> getEntityResults(){ return this.entityResults; }
+
+    public boolean isPartial(){ return this.partial; }
+    void setPartial(boolean partial){ this.partial = partial; }
+}
@@ -0,0 +1,167 @@
+package simulation;
+
+import entities.Entity;
+import globals.EntityType;
+import globals.Ticks;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress reporting, budgets and cooperative cancellation for a batch of replications (a driver run or a service
+ * request), shared by the replications of the batch on any number of threads:
+ *  - the progress listener, if any, is called from each replication's thread every progressInterval seconds;
+ *  - a replication stops once it has used its wall-clock or simulated time budget;
+ *  - every replication of the batch stops once the batch has used its wall-clock budget (counted from the creation of
+ *    the control) or simulated time budget (over all its replications), or once cancel() is called.
+ * Replications check the control every CHECK_INTERVAL clock iterations, and their simulated time budget on every
+ * iteration. A replication stopped by its control keeps the results reached so far, flagged as partial.
+ */
+public class RunControl {
+    public static final int CHECK_INTERVAL = 1024;                                      //Clock iterations between checks of the wall clock and the batch
+
+    private Double replicationWallClockBudget;                                          //Wall-clock seconds per replication, null for no limit
+    private Double replicationSimulatedBudget;                                          //Simulated hours per replication, null for no limit
+    private Double batchWallClockBudget;                                                //Wall-clock seconds for the whole batch, null for no limit
+    private Double batchSimulatedBudget;                                                //Simulated hours over all replications of the batch, null for no limit
+    private ProgressListener progressListener;                                          //Optional listener, may be null
+    private double progressInterval;                                                    //Wall-clock seconds between progress callbacks of a replication
+    private long batchStart;                                                            //System.nanoTime() when the batch started
+    private AtomicLong batchSimulatedTicks;                                             //Ticks simulated by the replications of the batch, as of their last check
+    private volatile String cancelReason;                                               //Why the batch was cancelled, null unless cancel() was called
+
+    public RunControl(){
+        this.batchStart = System.nanoTime();
+        this.batchSimulatedTicks = new AtomicLong();
+    }
+
+    public Double getReplicationWallClockBudget(){ return this.replicationWallClockBudget; }
+    public void setReplicationWallClockBudget(Double replicationWallClockBudget){ this.replicationWallClockBudget = replicationWallClockBudget; }
+
+    public Double getReplicationSimulatedBudget(){ return this.replicationSimulatedBudget; }
+    public void setReplicationSimulatedBudget(Double replicationSimulatedBudget){ this.replicationSimulatedBudget = replicationSimulatedBudget; }
+
+    public Double getBatchWallClockBudget(){ return this.batchWallClockBudget; }
+    public void setBatchWallClockBudget(Double batchWallClockBudget){ this.batchWallClockBudget = batchWallClockBudget; }
+
+    public Double getBatchSimulatedBudget(){ return this.batchSimulatedBudget; }
+    public void setBatchSimulatedBudget(Double batchSimulatedBudget){ this.batchSimulatedBudget = batchSimulatedBudget; }
+
+    /**
+     * Calls the listener every progressInterval seconds of wall-clock time while a replication runs.
+     *
+     * @param progressListener
+     * @param progressInterval
+     */
+    public void setProgressListener(ProgressListener progressListener, double progressInterval){
+        this.progressListener = progressListener;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Asks every replication of the batch to stop at its next check, keeping the results reached so far.
+     *
+     * @param reason
+     */
+    public void cancel(String reason){
+        this.cancelReason = reason;
+    }
+
+    /**
+     * Returns why the batch as a whole must stop, or null if replications may still run. Replications that have not
+     * started yet would stop before their first clock iteration, so a batch can skip them instead.
+     *
+     * @return
+     */
+    public String getBatchStopReason(){
+        if (this.cancelReason != null) {
+            return String.format("it was cancelled (%s)", this.cancelReason);
+        }
+        if (this.batchWallClockBudget != null && (System.nanoTime() - this.batchStart) / 1e9 >= this.batchWallClockBudget) {
+            return String.format("the batch wall-clock budget of %.1f s has been used", this.batchWallClockBudget);
+        }
+        if (this.batchSimulatedBudget != null && this.batchSimulatedTicks.get() >= Ticks.fromHours(this.batchSimulatedBudget)) {
+            return String.format("the batch simulated time budget of %.1f hrs has been used", this.batchSimulatedBudget);
+        }
+        return null;
+    }
+
+    /**
+     * Starts tracking a replication that is about to run its first clock iteration.
+     *
+     * @param replication
+     * @param targetTicks simulated time (ticks) the replication runs to unless it is stopped sooner
+     * @return
+     */
+    Run start(Replication replication, long targetTicks){
+        return new Run(replication, targetTicks);
+    }
+
+    /**
+     * The progress of one replication under the control.
+     */
+    class Run {
+        private Replication replication;
+        private long targetTicks;
+        private long start;                                                             //System.nanoTime() when the replication started
+        private long nextProgress;                                                      //System.nanoTime() of the next progress callback
+        private long reportedTicks;                                                     //Simulated ticks added to the batch total so far
+
+        private Run(Replication replication, long targetTicks){
+            this.replication = replication;
+            this.targetTicks = targetTicks;
+            this.start = System.nanoTime();
+            this.nextProgress = this.start + (long) (RunControl.this.progressInterval * 1e9);
+        }
+
+        /**
+         * Adds the time simulated since the last check to the batch, reports progress when it is due and returns why the
+         * replication must stop, or null to continue.
+         *
+         * @param simulatedTicks simulated time (ticks) reached by the replication
+         * @return
+         */
+        String check(long simulatedTicks){
+            RunControl.this.batchSimulatedTicks.addAndGet(simulatedTicks - this.reportedTicks);
+            this.reportedTicks = simulatedTicks;
+
+            long now = System.nanoTime();
+            if (RunControl.this.progressListener != null && now >= this.nextProgress) {
+                this.nextProgress = now + (long) (RunControl.this.progressInterval * 1e9);
+                this.reportProgress(simulatedTicks, now);
+            }
+
+            String batchStopReason = RunControl.this.getBatchStopReason();
+            if (batchStopReason != null) {
+                return batchStopReason;
+            }
+            Double wallClockBudget = RunControl.this.replicationWallClockBudget;
+            if (wallClockBudget != null && (now - this.start) / 1e9 >= wallClockBudget) {
+                return String.format("its wall-clock budget of %.1f s has been used", wallClockBudget);
+            }
+            return null;
+        }
+
+        /**
+         * Adds the rest of the replication's simulated time to the batch once it has stopped.
+         *
+         * @param simulatedTicks
+         */
+        void finish(long simulatedTicks){
+            RunControl.this.batchSimulatedTicks.addAndGet(simulatedTicks - this.reportedTicks);
+            this.reportedTicks = simulatedTicks;
+        }
+
+        private void reportProgress(long simulatedTicks, long now){
+            long productsAssembled = 0;
+            for (Entity entity : this.replication.getEntities()){
+                if (entity.getEntityType() == EntityType.WORKBENCH) {
+                    productsAssembled += entity.getServicesCompleted();
+                }
+            }
+            double simulatedHours = Ticks.toHours(simulatedTicks);
+            double elapsedSeconds = (now - this.start) / 1e9;
+            double etaSeconds = elapsedSeconds * (this.targetTicks - simulatedTicks) / simulatedTicks;
+            RunControl.this.progressListener.progressed(this.replication, simulatedHours, Ticks.toHours(this.targetTicks), productsAssembled / simulatedHours, etaSeconds);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package statistics;
+
+import java.util.ArrayList;
+
+/**
+ * Steady-state mean and confidence interval of a quantity from consecutive batches of a single replication.
+ *
+ * The batch size is chosen automatically: starting from the recorded batches, adjacent batches are merged pairwise
+ * (doubling the batch size) until the lag-1 autocorrelation of the batch means is no longer significantly positive
+ * (one-sided 5% test, rho1 <= 1.645 / sqrt(k) for k batches), or until merging would leave fewer than MIN_BATCHES.
+ * The confidence interval treats the resulting batch means as independent.
+ */
+public class BatchMeans {
+    public static final int MIN_BATCHES = 10;                                           //Fewest batches the confidence interval may be built from
+
+    private int batchSize;                                                              //Recorded batches merged into each batch
+    private ArrayList<Double> batchMeans;                                               //Mean of each merged batch
+    private double lagOneCorrelation;                                                   //Lag-1 autocorrelation of the merged batch means
+    private boolean correlationAccepted;                                                //Whether the batch means passed the correlation check
+
+    public BatchMeans(ArrayList<Double> batchValues){
+        this.batchSize = 1;
+        this.batchMeans = new ArrayList<Double>(batchValues);
+        this.lagOneCorrelation = lagOneCorrelation(this.batchMeans);
+        this.correlationAccepted = this.passesCorrelationCheck();
+        while (!this.correlationAccepted && this.batchMeans.size() / 2 >= MIN_BATCHES) {
+            ArrayList<Double> merged = new ArrayList<Double>();
+            for (int i = 0; i + 1 < this.batchMeans.size(); i += 2){
+                merged.add((this.batchMeans.get(i) + this.batchMeans.get(i + 1)) / 2);
+            }
+            this.batchMeans = merged;
+            this.batchSize *= 2;
+            this.lagOneCorrelation = lagOneCorrelation(this.batchMeans);
+            this.correlationAccepted = this.passesCorrelationCheck();
+        }
+    }
+
+    private boolean passesCorrelationCheck(){
+        return this.batchMeans.size() >= 2 && this.lagOneCorrelation <= 1.645 / Math.sqrt(this.batchMeans.size());
+    }
+
+    /**
+     * Lag-1 sample autocorrelation, 0 when it can not be estimated.
+     *
+     * @param values
+     * @return
+     */
+    static public double lagOneCorrelation(ArrayList<Double> values){
+        if (values.size() < 3) {
+            return 0.0;
+        }
+        double mean = Calculator.mean(values);
+        double numerator = 0.0;
+        double denominator = 0.0;
+        for (int i = 0; i < values.size(); i++){
+            denominator += (values.get(i) - mean) * (values.get(i) - mean);
+            if (i + 1 < values.size()) {
+                numerator += (values.get(i) - mean) * (values.get(i + 1) - mean);
+            }
+        }
+        return denominator == 0 ? 0.0 : numerator / denominator;
+    }
+
+    public int getBatchSize(){ return this.batchSize; }
+
+    public int getNumberOfBatches(){ return this.batchMeans.size(); }
+
+    public double getLagOneCorrelation(){ return this.lagOneCorrelation; }
+
+    public boolean isCorrelationAccepted(){ return this.correlationAccepted; }
+
+    public double getMean(){ return this.batchMeans.isEmpty() ? Double.NaN : Calculator.mean(this.batchMeans); }
+
+    public double getHalfWidth(){ return Calculator.confidenceHalfWidth95(this.batchMeans); }
+
+    /**
+     * @param batchLengthHours length of each recorded batch
+     * @return
+     */
+    public String produceReport(double batchLengthHours){
+        if (this.batchMeans.size() < 2) {
+            return "not enough steady-state batches";
+        }
+        return String.format("%.4f +/- %.4f (%d batches of %.1f hrs, lag-1 correlation %.3f%s)", this.getMean(), this.getHalfWidth(), this.getNumberOfBatches(),
+                this.batchSize * batchLengthHours, this.lagOneCorrelation, this.correlationAccepted ? "" : ", correlation check failed, lengthen the run");
+    }
+}
@@ -0,0 +1,69 @@
+package statistics;
+
+import entities.Entity;
+import entities.Inspector;
+import entities.WorkBench;
+import globals.ComponentName;
+import globals.EntityType;
+import globals.Ticks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class BottleneckRanking {
+
+    /**
+     * Ranks workbenches and inspectors by the time they hold up the rest of the line:
+     *  - a workbench whose buffer is full blocks the inspectors feeding it (more buffer capacity or a faster workbench helps);
+     *  - an inspector that is slow to supply a component starves the workbenches waiting for it (a faster inspector helps).
+     * A delay with several causes at once (an inspector blocked by several full buffers, a workbench waiting for several
+     * components) is split evenly between them, so no time is counted twice and the delays add up to the time the
+     * entities were held up. Each delay is also reported as the average % of the simulated time of the entities it holds up.
+     *
+     * @param entities
+     * @return
+     */
+    static public String produceRanking(ArrayList<Entity> entities){
+        HashMap<String, Long> delayCaused = new HashMap<String, Long>();
+        HashMap<String, String> explanation = new HashMap<String, String>();
+        HashMap<String, Integer> entitiesHeldUp = new HashMap<String, Integer>();
+        ArrayList<Inspector> inspectors = new ArrayList<Inspector>();
+        ArrayList<WorkBench> workbenches = new ArrayList<WorkBench>();
+        long simulatedTime = 0;
+        for (Entity entity : entities){
+            simulatedTime = Math.max(simulatedTime, entity.getTotalStateTime());
+            if (entity.getEntityType() == EntityType.INSPECTOR) {
+                inspectors.add((Inspector) entity);
+            } else {
+                workbenches.add((WorkBench) entity);
+            }
+        }
+
+        for (Inspector inspector : inspectors){
+            for (ComponentName componentName : inspector.getInspectableComponents()){
+                for (WorkBench workbench : inspector.getWorkbenchesForComponent(componentName)){
+                    add(delayCaused, explanation, entitiesHeldUp, workbench.getName(), "full buffers block inspectors", inspector.getBlockedTime(workbench, componentName));
+                    add(delayCaused, explanation, entitiesHeldUp, inspector.getName(), "slow supply starves workbenches", workbench.getStarvedTime(componentName));
+                }
+            }
+        }
+
+        ArrayList<String> ranking = new ArrayList<String>(delayCaused.keySet());
+        ranking.sort((a, b) -> Long.compare(delayCaused.get(b), delayCaused.get(a)));
+        StringBuilder result = new StringBuilder("BOTTLENECK RANKING");
+        int rank = 1;
+        for (String name : ranking){
+            result.append(String.format("\n%d. [%s] %s: %.2f mins (avg %.2f%% of the time of %d entities held up)", rank, name, explanation.get(name), Ticks.toMinutes(delayCaused.get(name)), delayCaused.get(name) * 100.0 / (simulatedTime * entitiesHeldUp.get(name)), entitiesHeldUp.get(name)));
+            rank ++;
+        }
+        return result.toString();
+    }
+
+    static private void add(HashMap<String, Long> delayCaused, HashMap<String, String> explanation, HashMap<String, Integer> entitiesHeldUp, String name, String reason, long delay){
+        Long current = delayCaused.get(name);
+        Integer count = entitiesHeldUp.get(name);
+        delayCaused.put(name, (current == null ? 0 : current) + delay);
+        entitiesHeldUp.put(name, (count == null ? 0 : count) + 1);
+        explanation.put(name, reason);
+    }
+}
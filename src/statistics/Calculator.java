@@ -2,6 +2,7 @@ package statistics;
 
 import entities.Component;
 import globals.EntityType;
+import globals.Ticks;
 
 import java.util.ArrayList;
 
@@ -18,18 +19,86 @@ public class Calculator {
     }
 
     static private double getAvgInterArrivalTime(ArrayList<Component> components){
-        Double sumInterArrivalTimes = 0.0;
+        long sumInterArrivalTimes = 0;
         for (Component component : components){
             sumInterArrivalTimes += component.getInterArrivalTime(EntityType.INSPECTOR);
         }
-        return Math.round(sumInterArrivalTimes/components.size());
+        return Math.round(Ticks.toSeconds(sumInterArrivalTimes)/components.size());
     }
 
     static private double getAvgSystemTime(ArrayList<Component> components){
-        Double sumSystemTimes = 0.0;
+        long sumSystemTimes = 0;
         for (Component component : components){
             sumSystemTimes += component.getSystemTime();
         }
-        return Math.round(sumSystemTimes/components.size());
+        return Math.round(Ticks.toSeconds(sumSystemTimes)/components.size());
+    }
+
+    /**
+     * Standard normal cumulative distribution function (Abramowitz and Stegun 7.1.26 approximation of erf).
+     *
+     * @param x
+     * @return
+     */
+    static public double standardNormalCdf(double x){
+        double z = Math.abs(x) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * z);
+        double erf = 1 - (((((1.061405429 * t - 1.453152027) * t) + 1.421413741) * t - 0.284496736) * t + 0.254829592) * t * Math.exp(-z * z);
+        return x >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+    }
+
+    static public double mean(ArrayList<Double> values){
+        double sum = 0.0;
+        for (Double value : values){
+            sum += value;
+        }
+        return sum / values.size();
+    }
+
+    /**
+     * Sample variance (n - 1 denominator), 0 when fewer than two values are available.
+     *
+     * @param values
+     * @return
+     */
+    static public double variance(ArrayList<Double> values){
+        if (values.size() < 2){
+            return 0.0;
+        }
+        double mean = mean(values);
+        double sumSquares = 0.0;
+        for (Double value : values){
+            sumSquares += (value - mean) * (value - mean);
+        }
+        return sumSquares / (values.size() - 1);
+    }
+
+    /**
+     * Two-sided 95% critical value of Student's t distribution (Cornish-Fisher expansion around the normal quantile,
+     * accurate to about 0.01 for 3 or more degrees of freedom).
+     *
+     * @param degreesOfFreedom
+     * @return
+     */
+    static public double studentT95(int degreesOfFreedom){
+        double z = 1.959963985;
+        double v = degreesOfFreedom;
+        double g1 = (Math.pow(z, 3) + z) / 4;
+        double g2 = (5 * Math.pow(z, 5) + 16 * Math.pow(z, 3) + 3 * z) / 96;
+        double g3 = (3 * Math.pow(z, 7) + 19 * Math.pow(z, 5) + 17 * Math.pow(z, 3) - 15 * z) / 384;
+        return z + g1 / v + g2 / (v * v) + g3 / (v * v * v);
+    }
+
+    /**
+     * Half width of the 95% confidence interval for the mean of independent values.
+     *
+     * @param values
+     * @return
+     */
+    static public double confidenceHalfWidth95(ArrayList<Double> values){
+        if (values.size() < 2){
+            return Double.NaN;
+        }
+        return studentT95(values.size() - 1) * Math.sqrt(variance(values) / values.size());
     }
 }
@@ -2,6 +2,7 @@ package statistics;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Random;
 
 public class NumberGenerator {
 
@@ -13,6 +14,28 @@ public class NumberGenerator {
         return Math.log(1-Math.random())/(-lambda);
     }
 
+    /**
+     * Generates a random number from an exponential distribution using the given random number stream
+     * @return Generated random number
+     */
+    public static Double generateExpNumber(Double lambda, Random random){
+        return Math.log(1-random.nextDouble())/(-lambda);
+    }
+
+    /**
+     * Generates an ArrayList of random numbers from an exponential distribution using the given random number stream
+     * @param numbersToGenerate Size of ArrayList to generate
+     * @param random Random number stream
+     * @return ArrayList of generated random numbers
+     */
+    public static ArrayList<Double> generateExpNumberList(int numbersToGenerate, Double lambda, Random random){
+        ArrayList<Double> generatedNumbers = new ArrayList<>();
+        for (int i = 0; i < numbersToGenerate; i++){
+            generatedNumbers.add(generateExpNumber(lambda, random)*60);
+        }
+        return generatedNumbers;
+    }
+
     /**
      * Generates an ArrayList of random numbers from an exponential distribution
      * @param numbersToGenerate Size of ArrayList to generate
@@ -26,6 +49,21 @@ public class NumberGenerator {
         return generatedNumbers;
     }
 
+    /**
+     * Derives an independent stream seed from a replication seed and a stream index (SplitMix64 finalizer), so that
+     * neighbouring replication seeds do not produce correlated streams.
+     *
+     * @param seed
+     * @param stream
+     * @return
+     */
+    public static long streamSeed(long seed, int stream){
+        long z = seed * 0x9E3779B97F4A7C15L + (stream + 1) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     /**
      * Calculates the mean of a given ArrayList
      * @param items ArrayList to calculate mean of
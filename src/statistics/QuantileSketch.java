@@ -0,0 +1,186 @@
+package statistics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Fixed-memory streaming quantile estimator for non-negative long values (HDR-style log-linear histogram).
+ *
+ * Values below SUB_BUCKETS are counted exactly. Larger values fall in one of SUB_BUCKETS equal sub-buckets of their
+ * power of two range, so any reported quantile is within 1/(2 * SUB_BUCKETS) (about 0.4%) of a recorded value of the
+ * same rank. Ranges are allocated only when a value falls in them, so a sketch stays a few KB whatever the number of
+ * values recorded. Two sketches merge exactly by adding their counts, e.g. to combine replications.
+ */
+public class QuantileSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;                        //Sub-buckets in each power of two range
+    private static final int RANGES = 64 - SUB_BUCKET_BITS + 1;                         //Range 0 holds the exact small values
+
+    private long[][] counts;                                                            //Counts per range and sub-bucket, a range is null until used
+    private long count;
+    private long min;
+    private long max;
+    private double sum;
+
+    public QuantileSketch(){
+        this.counts = new long[RANGES][];
+        this.count = 0;
+        this.min = Long.MAX_VALUE;
+        this.max = Long.MIN_VALUE;
+        this.sum = 0.0;
+    }
+
+    /**
+     * Records a value, negative values are recorded as 0.
+     *
+     * @param value
+     */
+    public void record(long value){
+        value = Math.max(0, value);
+        int range = range(value);
+        if (this.counts[range] == null) {
+            this.counts[range] = new long[SUB_BUCKETS];
+        }
+        this.counts[range][subBucket(value, range)] ++;
+        this.count ++;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+        this.sum += value;
+    }
+
+    /**
+     * Adds all values recorded by another sketch to this one.
+     *
+     * @param other
+     */
+    public void merge(QuantileSketch other){
+        for (int range = 0; range < RANGES; range++){
+            if (other.counts[range] == null) {
+                continue;
+            }
+            if (this.counts[range] == null) {
+                this.counts[range] = new long[SUB_BUCKETS];
+            }
+            for (int subBucket = 0; subBucket < SUB_BUCKETS; subBucket++){
+                this.counts[range][subBucket] += other.counts[range][subBucket];
+            }
+        }
+        this.count += other.count;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        this.sum += other.sum;
+    }
+
+    public long getCount(){ return this.count; }
+
+    public double getMean(){ return this.count == 0 ? Double.NaN : this.sum / this.count; }
+
+    /**
+     * Estimated value at quantile q (0 to 1), -1 if nothing has been recorded.
+     *
+     * @param q
+     * @return
+     */
+    public long getQuantile(double q){
+        if (this.count == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * this.count));
+        long seen = 0;
+        for (int range = 0; range < RANGES; range++){
+            if (this.counts[range] == null) {
+                continue;
+            }
+            for (int subBucket = 0; subBucket < SUB_BUCKETS; subBucket++){
+                seen += this.counts[range][subBucket];
+                if (seen >= rank) {
+                    return Math.max(this.min, Math.min(this.max, representative(range, subBucket)));
+                }
+            }
+        }
+        return this.max;
+    }
+
+    private static int range(long value){
+        if (value < SUB_BUCKETS) {
+            return 0;
+        }
+        return 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+    }
+
+    private static int subBucket(long value, int range){
+        if (range == 0) {
+            return (int) value;
+        }
+        return (int) (value >>> (range - 1)) - SUB_BUCKETS;
+    }
+
+    /**
+     * Middle of a sub-bucket.
+     *
+     * @param range
+     * @param subBucket
+     * @return
+     */
+    private static long representative(int range, int subBucket){
+        if (range == 0) {
+            return subBucket;
+        }
+        long width = 1L << (range - 1);
+        return ((long) (subBucket + SUB_BUCKETS) << (range - 1)) + width / 2;
+    }
+
+    /**
+     * Writes the non-empty buckets, for the result cache.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(this.count);
+        out.writeLong(this.min);
+        out.writeLong(this.max);
+        out.writeDouble(this.sum);
+        int numBuckets = 0;
+        for (long[] rangeCounts : this.counts){
+            if (rangeCounts != null) {
+                for (long bucketCount : rangeCounts){
+                    numBuckets += bucketCount > 0 ? 1 : 0;
+                }
+            }
+        }
+        out.writeInt(numBuckets);
+        for (int range = 0; range < RANGES; range++){
+            if (this.counts[range] == null) {
+                continue;
+            }
+            for (int subBucket = 0; subBucket < SUB_BUCKETS; subBucket++){
+                if (this.counts[range][subBucket] > 0) {
+                    out.writeShort(range * SUB_BUCKETS + subBucket);
+                    out.writeLong(this.counts[range][subBucket]);
+                }
+            }
+        }
+    }
+
+    public static QuantileSketch read(DataInputStream in) throws IOException {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.count = in.readLong();
+        sketch.min = in.readLong();
+        sketch.max = in.readLong();
+        sketch.sum = in.readDouble();
+        int numBuckets = in.readInt();
+        for (int b = 0; b < numBuckets; b++){
+            int bucket = in.readShort();
+            int range = bucket / SUB_BUCKETS;
+            if (sketch.counts[range] == null) {
+                sketch.counts[range] = new long[SUB_BUCKETS];
+            }
+            sketch.counts[range][bucket % SUB_BUCKETS] = in.readLong();
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,391 @@
+package verification;
+
+import codegen.SimulatorGenerator;
+import codegen.SpecializedSimulator;
+import entities.Entity;
+import globals.Ticks;
+import parallel.ParallelReplication;
+import rare.AllWorkbenchesStarved;
+import rare.FixedEffortSplitting;
+import rare.RareEvent;
+import results.ColumnarResultsReader;
+import results.ColumnarResultsWriter;
+import service.SimulationService;
+import simulation.Configuration;
+import simulation.EntityResult;
+import simulation.Replication;
+import simulation.ReplicationResult;
+import statistics.BatchMeans;
+import statistics.QuantileSketch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Quick checks of the engines and statistics against each other and against known answers, run with the argument
+ * "check" to the driver or on their own. Each check prints PASS or FAIL with its details; the process exits with a
+ * non-zero status if any check fails, so the checks can gate a build.
+ */
+public class SelfCheck {
+    private static final long SEED = 4005L;
+    private static final int BUFFER_SIZE = 2;                                           //Default configuration of the driver, with a short replication
+    private static final double CLOCK_INCREMENT_SIZE = 0.1;
+    private static final int NUM_SERVICE_TIMES = 6000;
+    private static final double REPLICATION_LENGTH_HOURS = 50.0;
+    private static final int STATION_SERVERS = 3;                                       //Servers per workbench of the multi-server configuration
+    private static final int PARALLEL_WORKBENCH_PARTITIONS = 2;
+    private static final int AR_SERIES = 200;                                           //Independent AR(1) series given to BatchMeans
+    private static final int AR_LENGTH = 4096;                                          //Values in each AR(1) series
+    private static final double AR_MEAN = 5.0;
+    private static final double AR_COEFFICIENT = 0.9;                                   //Lag-1 coefficient phi, strongly correlated like a queue length
+    private static final int SKETCH_VALUES = 100000;                                    //Values recorded in each QuantileSketch check
+    private static final int SKETCH_PARTS = 3;                                          //Sketches the values are split across before merging
+    private static final double SKETCH_RELATIVE_ERROR = 1.0 / 256;                      //QuantileSketch bound, half a sub-bucket of 1/128 of a power of two
+    private static final double[] SKETCH_QUANTILES = {0.001, 0.01, 0.1, 0.5, 0.9, 0.99, 0.999};
+    private static final double SPLITTING_WARMUP_HOURS = 1.0;                           //Simulated before the episode the splitting copies start from
+    private static final int SPLITTING_COPIES = 20;
+    private static final int SPLITTING_SERVICE_TIMES = 200;                             //Service times per stream after each copy is resampled
+    private static final int COLUMNAR_ROWS = ColumnarResultsWriter.BLOCK_ROWS + 1000;   //Synthetic rows of the large results file, more than one block
+
+    private Configuration configuration;                                                //Default configuration the checks share
+    private ReplicationResult result;                                                   //Seeded replication of the default configuration, run once for every check using it
+    private int checks;
+    private int failures;
+
+    public static void main(String[] args){
+        if (!new SelfCheck().run()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs every check and prints a line per check and a summary.
+     *
+     * @return whether every check passed
+     */
+    public boolean run(){
+        System.out.println("SELF CHECK");
+        this.configuration = newConfiguration(1, false);
+        this.result = runReplication(this.configuration);
+        this.checkEngines(this.configuration, this.result);
+        for (boolean sharedStationBuffers : new boolean[]{false, true}){
+            Configuration stationConfiguration = newConfiguration(STATION_SERVERS, sharedStationBuffers);
+            this.checkEngines(stationConfiguration, runReplication(stationConfiguration));
+        }
+        this.checkBatchMeans();
+        this.checkQuantileSketch("exponential", false);
+        this.checkQuantileSketch("lognormal", true);
+        this.checkColumnarResults();
+        this.checkSplittingCopies();
+        this.checkServiceLimits();
+        System.out.println(String.format("%d of %d checks passed", this.checks - this.failures, this.checks));
+        System.out.println("-----------------------------------------------------");
+        System.out.println("-----------------------------------------------------");
+        return this.failures == 0;
+    }
+
+    private static Configuration newConfiguration(int workbenchServers, boolean sharedStationBuffers){
+        Configuration configuration = new Configuration(BUFFER_SIZE, CLOCK_INCREMENT_SIZE, NUM_SERVICE_TIMES, REPLICATION_LENGTH_HOURS);
+        configuration.setSeed(SEED);
+        configuration.setWorkbenchServers(workbenchServers);
+        configuration.setSharedStationBuffers(sharedStationBuffers);
+        return configuration;
+    }
+
+    private static ReplicationResult runReplication(Configuration configuration){
+        Replication replication = new Replication(configuration, 1);
+        replication.run();
+        return replication.getResult();
+    }
+
+    /**
+     * Runs the seeded replication of a configuration with the specialized simulator (or the generic engine it falls back
+     * to) and the parallel engine, which must both give the generic engine's results.
+     *
+     * @param configuration
+     * @param expected the generic engine's results
+     */
+    private void checkEngines(Configuration configuration, ReplicationResult expected){
+        SpecializedSimulator simulator = SimulatorGenerator.compileIfAvailable(configuration);
+        ReplicationResult specialized = simulator != null ? simulator.run(expected.getSeed(), 1) : runReplication(configuration);
+        this.check(String.format("%s matches Replication.run() (%s)", simulator != null ? "Specialized simulator" : "Generic fallback of the specialized simulator", configuration.getDescription()), identicalResults(expected, specialized), "");
+
+        Replication parallel = new ParallelReplication(configuration, 1, PARALLEL_WORKBENCH_PARTITIONS);
+        parallel.run();
+        this.check(String.format("ParallelReplication matches Replication.run() (%s)", configuration.getDescription()), identicalResults(expected, parallel.getResult()), "");
+    }
+
+    /**
+     * Gives BatchMeans AR(1) series X_t = mu + phi (X_(t-1) - mu) + e_t with standard normal e_t, strongly correlated like
+     * a queue length. Its 95% confidence intervals should cover mu about 95% of the time, which needs the batches to be
+     * merged until their means are nearly independent. The average half width, close to 1.96 / ((1 - phi) sqrt(n)) for
+     * large n, is reported alongside.
+     *
+     */
+    private void checkBatchMeans(){
+        Random random = new Random(SEED);
+        int covered = 0;
+        double halfWidthSum = 0.0;
+        for (int series = 0; series < AR_SERIES; series++){
+            ArrayList<Double> values = new ArrayList<Double>();
+            double value = AR_MEAN + random.nextGaussian() / Math.sqrt(1 - AR_COEFFICIENT * AR_COEFFICIENT);  //Stationary start
+            for (int t = 0; t < AR_LENGTH; t++){
+                values.add(value);
+                value = AR_MEAN + AR_COEFFICIENT * (value - AR_MEAN) + random.nextGaussian();
+            }
+            BatchMeans batchMeans = new BatchMeans(values);
+            if (Math.abs(batchMeans.getMean() - AR_MEAN) <= batchMeans.getHalfWidth()) {
+                covered ++;
+            }
+            halfWidthSum += batchMeans.getHalfWidth();
+        }
+        double coverage = (double) covered / AR_SERIES;
+        this.check("BatchMeans covers the mean of AR(1) series", coverage >= 0.90 && coverage <= 0.99,
+                String.format("coverage %.3f of %d series, expected 0.95, average half width %.4f, expected %.4f", coverage, AR_SERIES, halfWidthSum / AR_SERIES, 1.96 / ((1 - AR_COEFFICIENT) * Math.sqrt(AR_LENGTH))));
+    }
+
+    /**
+     * Records values split across SKETCH_PARTS sketches and merges them, as the quantile report merges replications.
+     * Every quantile of the merged sketch must be within the sketch's relative error of the exact quantile.
+     *
+     * @param distribution
+     * @param lognormal exponential values (mean 10 minutes in ticks) if false, lognormal values spanning several decades if true
+     */
+    private void checkQuantileSketch(String distribution, boolean lognormal){
+        Random random = new Random(SEED);
+        long[] values = new long[SKETCH_VALUES];
+        QuantileSketch[] parts = new QuantileSketch[SKETCH_PARTS];
+        for (int p = 0; p < SKETCH_PARTS; p++){
+            parts[p] = new QuantileSketch();
+        }
+        for (int i = 0; i < SKETCH_VALUES; i++){
+            double minutes = lognormal ? Math.exp(2.0 * random.nextGaussian()) : -10.0 * Math.log(1 - random.nextDouble());
+            values[i] = Ticks.fromSeconds(60 * minutes);
+            parts[i % SKETCH_PARTS].record(values[i]);
+        }
+        QuantileSketch merged = new QuantileSketch();
+        for (QuantileSketch part : parts){
+            merged.merge(part);
+        }
+        Arrays.sort(values);
+
+        double worstError = 0.0;
+        for (double q : SKETCH_QUANTILES){
+            long exact = values[(int) Math.max(1, Math.ceil(q * SKETCH_VALUES)) - 1];
+            worstError = Math.max(worstError, Math.abs(merged.getQuantile(q) - exact) / (double) exact);
+        }
+        this.check(String.format("Merged QuantileSketch quantiles are within the relative error bound (%s)", distribution), merged.getCount() == SKETCH_VALUES && worstError <= SKETCH_RELATIVE_ERROR,
+                String.format("%d values, worst relative error %.5f, bound %.5f", merged.getCount(), worstError, SKETCH_RELATIVE_ERROR));
+    }
+
+    /**
+     * Writes a results file of synthetic rows spanning two blocks followed by the shared replication's results, and reads
+     * every row back. Then writes only the replication's results over the same file, as each default run does over
+     * results.simc, which must leave exactly the file a fresh write produces.
+     *
+     */
+    private void checkColumnarResults(){
+        File file = null;
+        File freshFile = null;
+        try {
+            file = File.createTempFile("selfcheck", ".simc");
+            freshFile = File.createTempFile("selfcheck-fresh", ".simc");
+            try (ColumnarResultsWriter writer = new ColumnarResultsWriter(file)) {
+                for (int row = 0; row < COLUMNAR_ROWS; row++){
+                    writer.write("synthetic" + row % 3, row, 7L * row, "Entity" + row % 5, "metric" + row % 4, row * 0.5);
+                }
+                writer.write(this.configuration.getDescription(), 1, this.result);
+            }
+            boolean rowsMatch = true;
+            int row = 0;
+            HashMap<String, Double> quantitiesOfInterest = new HashMap<String, Double>();
+            try (ColumnarResultsReader reader = new ColumnarResultsReader(file)) {
+                for (int b = 0; b < reader.getBlockCount(); b++){
+                    ColumnarResultsReader.Block block = reader.getBlock(b);
+                    for (int r = 0; r < block.getRows(); r++, row++){
+                        String scenario = reader.getScenarios().get(block.getScenario(r));
+                        String entity = reader.getEntities().get(block.getEntity(r));
+                        String metric = reader.getMetrics().get(block.getMetric(r));
+                        if (row < COLUMNAR_ROWS) {
+                            rowsMatch = rowsMatch && scenario.equals("synthetic" + row % 3) && block.getReplication(r) == row && block.getSeed(r) == 7L * row
+                                    && entity.equals("Entity" + row % 5) && metric.equals("metric" + row % 4) && block.getValue(r) == row * 0.5;
+                        } else if (metric.equals("quantityOfInterest")) {
+                            rowsMatch = rowsMatch && scenario.equals(this.configuration.getDescription()) && block.getSeed(r) == this.result.getSeed();
+                            quantitiesOfInterest.put(entity, block.getValue(r));
+                        }
+                    }
+                }
+            }
+            for (EntityResult entityResult : this.result.getEntityResults()){
+                rowsMatch = rowsMatch && entityResult.getQuantityOfInterest().equals(quantitiesOfInterest.get(entityResult.getName()));
+            }
+            this.check("ColumnarResultsReader reads back every row written", rowsMatch, String.format("%d rows", row));
+
+            try (ColumnarResultsWriter writer = new ColumnarResultsWriter(file)) {
+                writer.write(this.configuration.getDescription(), 1, this.result);
+            }
+            try (ColumnarResultsWriter writer = new ColumnarResultsWriter(freshFile)) {
+                writer.write(this.configuration.getDescription(), 1, this.result);
+            }
+            long rows;
+            try (ColumnarResultsReader reader = new ColumnarResultsReader(file)) {
+                rows = reader.getRowCount();
+            }
+            boolean truncated = Arrays.equals(Files.readAllBytes(file.toPath()), Files.readAllBytes(freshFile.toPath()));
+            this.check("Rewriting a results file truncates the previous results", truncated, String.format("%d rows left, %d bytes", rows, file.length()));
+        } catch (IOException e){
+            this.check("Results files can be written and read", false, e.toString());
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+            if (freshFile != null) {
+                freshFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Copies the entities at the start of an episode of every workbench starving, as FixedEffortSplitting does, and
+     * continues each resampled copy until the episode ends. The services in progress are resampled with the rest, so the
+     * copies must not follow the same path: most of their episode lengths must differ.
+     *
+     */
+    private void checkSplittingCopies(){
+        RareEvent rareEvent = new AllWorkbenchesStarved();
+        long interval = Ticks.fromSeconds(CLOCK_INCREMENT_SIZE);
+        long maxLength = Ticks.fromHours(REPLICATION_LENGTH_HOURS);
+        ArrayList<Entity> entities = Replication.init(this.configuration, SEED);
+        byte[] state = null;
+        boolean wasActive = true;
+        for (long clock = interval; state == null && clock <= maxLength; clock += interval){
+            step(entities, interval);
+            boolean active = rareEvent.isActive(entities);
+            if (active && !wasActive && clock >= Ticks.fromHours(SPLITTING_WARMUP_HOURS)) {
+                state = FixedEffortSplitting.copy(entities);
+            }
+            wasActive = active;
+        }
+        if (state == null) {
+            this.check("FixedEffortSplitting copies of one state follow independent paths", false, "no episode to copy");
+            return;
+        }
+
+        Random random = new Random(SEED);
+        TreeSet<Long> lengths = new TreeSet<Long>();
+        for (int c = 0; c < SPLITTING_COPIES; c++){
+            ArrayList<Entity> copy = FixedEffortSplitting.restore(state);
+            for (Entity entity : copy){
+                entity.resampleServiceTimes(SPLITTING_SERVICE_TIMES, random);
+            }
+            long length = 0;
+            do {
+                step(copy, interval);
+                length += interval;
+            } while (rareEvent.isActive(copy) && length < maxLength);
+            lengths.add(length);
+        }
+        this.check("FixedEffortSplitting copies of one state follow independent paths", lengths.size() > SPLITTING_COPIES / 2,
+                String.format("%d distinct episode lengths of %d copies, %.1f to %.1f mins", lengths.size(), SPLITTING_COPIES, Ticks.toMinutes(lengths.first()), Ticks.toMinutes(lengths.last())));
+    }
+
+    private static void step(ArrayList<Entity> entities, long interval){
+        for (Entity entity : entities){
+            entity.clockUpdate(interval);
+        }
+    }
+
+    /**
+     * Starts the simulation service on a free loopback port and asks it for more clock iterations than it allows, once
+     * in a single long replication and once spread over many short ones. Both must be answered with 400, while a small
+     * request is still served.
+     *
+     */
+    private void checkServiceLimits(){
+        SimulationService service = new SimulationService(this.configuration, 1, null);
+        try {
+            service.start(0);
+            try {
+                int longReplication = post(service.getPort(), "{\"maxReplicationLengthHours\":100000,\"clockIncrementSize\":0.001}");
+                int manyReplications = post(service.getPort(), "{\"maxReplicationLengthHours\":1000,\"replications\":1000}");
+                int small = post(service.getPort(), "{\"maxReplicationLengthHours\":1,\"replications\":2}");
+                this.check("SimulationService rejects requests over its clock iteration bound", longReplication == 400 && manyReplications == 400 && small == 200,
+                        String.format("long replication %d, many replications %d, small request %d", longReplication, manyReplications, small));
+            } finally {
+                service.stop();
+            }
+        } catch (IOException e){
+            this.check("SimulationService answers on the loopback interface", false, e.toString());
+        }
+    }
+
+    /**
+     * Posts a scenario to the service's /simulate endpoint and reads the whole response.
+     *
+     * @param port
+     * @param scenario
+     * @return the HTTP status
+     * @throws IOException
+     */
+    private static int post(int port, String scenario) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(String.format("http://localhost:%d/simulate", port)).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(scenario.getBytes(StandardCharsets.UTF_8));
+            }
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    in.readAllBytes();
+                }
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void check(String name, boolean passed, String details){
+        this.checks ++;
+        if (!passed) {
+            this.failures ++;
+        }
+        System.out.println(String.format("%s %s%s", passed ? "PASS" : "FAIL", name, details.isEmpty() ? "" : "  " + details));
+    }
+
+    /**
+     * Compares the simulated time, stop reason and each entity's quantity of interest, services completed and state times.
+     *
+     * @param expected
+     * @param actual
+     * @return
+     */
+    public static boolean identicalResults(ReplicationResult expected, ReplicationResult actual){
+        if (!expected.getSimulatedTime().equals(actual.getSimulatedTime()) || !expected.getStopReason().equals(actual.getStopReason())
+                || expected.getEntityResults().size() != actual.getEntityResults().size()) {
+            return false;
+        }
+        for (int e = 0; e < expected.getEntityResults().size(); e++){
+            EntityResult expectedEntity = expected.getEntityResults().get(e);
+            EntityResult actualEntity = actual.getEntityResults().get(e);
+            if (!expectedEntity.getName().equals(actualEntity.getName()) || !expectedEntity.getQuantityOfInterest().equals(actualEntity.getQuantityOfInterest())
+                    || !expectedEntity.getServicesCompleted().equals(actualEntity.getServicesCompleted()) || !expectedEntity.getStateTimes().equals(actualEntity.getStateTimes())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}